@@ -26,68 +26,63 @@ public class Decoder {
     /**
      * Decode function for 2DFT
      * encoding format of 2DFT: ({Q},{I},{O},{t:(q,a,b,q,n)},{q},{F})
+     * The encoding is read once from left to right, every set is stored as soon as it is read.
      * @param encoding Encoding of 2DFT
      * @return An instance of 2DFT
      */
     public TDFT decodeTDFT(String encoding) throws Exception{
-        //split the encoding string into different parts and storing in different arrays or hashmaps
-        String[] sets = encoding.split("\\},\\{");
-        if (sets.length != 6) {
-            throw new Exception("Invalid 2DFT encoding structure.");
-        }
-        String[] statesArray = sets[0].substring(2).split(",");
-        String[] inAlpha = sets[1].split(",");
-        String[] outAlpha = sets[2].split(",");
-        String[] tranFunc = sets[3].split("\\),\\(");
-        String initialState = sets[4];
-        String[] finalStatesArray = sets[5].substring(0,sets[5].length()-2).split(",");
+        EncodingParser parser = new EncodingParser(encoding);
+        parser.begin();
+        ArrayList<String> statesArray = parser.atoms();
         HashMap<String, Integer> states = new HashMap<String, Integer>();
-        HashMap<String, Integer> inputAlphabet = new HashMap<String, Integer>();
-        HashSet<String> finalStates = new HashSet<String>();
-        HashSet<String> outputAlphabet = new HashSet<String>();
-        for (int i = 0; i < statesArray.length; i++) {
-            states.put(statesArray[i],i);
+        for (int i = 0; i < statesArray.size(); i++) {
+            states.put(statesArray.get(i),i);
         }
-        if (states.get(initialState) == null) {
-            throw new Exception("Unknow initial state: " + initialState + ".");
-        }
-        for (int i = 0; i < inAlpha.length; i++) {
-            inputAlphabet.put(inAlpha[i],i);
-        }
-        for (int i = 0; i < outAlpha.length; i++) {
-            outputAlphabet.add(outAlpha[i]);
-        }
-        for (int i = 0; i < finalStatesArray.length; i++) {
-            if (states.get(finalStatesArray[i]) == null) {
-                throw new Exception("Unknow final state: " + finalStatesArray[i] + ".");
-            }
-            finalStates.add(finalStatesArray[i]);
+        ArrayList<String> inAlpha = parser.atoms();
+        HashMap<String, Integer> inputAlphabet = new HashMap<String, Integer>();
+        for (int i = 0; i < inAlpha.size(); i++) {
+            inputAlphabet.put(inAlpha.get(i),i);
         }
-        inputAlphabet.put("^",inAlpha.length);
-        inputAlphabet.put("$",inAlpha.length+1);
+        inputAlphabet.put("^",inAlpha.size());
+        inputAlphabet.put("$",inAlpha.size()+1);
+        HashSet<String> outputAlphabet = new HashSet<String>(parser.atoms());
         //store transition function
-        Object[][][] transition = new Object[statesArray.length][inAlpha.length+2][3];
-        String[] singleTrans;
-        for (int i = 0; i < tranFunc.length; i++) {
-            if (i == 0) {
-                singleTrans = tranFunc[i].substring(1).split(",");
-            } else if (i == tranFunc.length-1) {
-                singleTrans = tranFunc[i].substring(0,tranFunc[i].length()-1).split(",");
-            } else {
-                singleTrans = tranFunc[i].split(",");
+        Object[][][] transition = new Object[statesArray.size()][inAlpha.size()+2][3];
+        ArrayList<String[]> tranFunc = parser.tuples();
+        for (int i = 0; i < tranFunc.size(); i++) {
+            String[] singleTrans = tranFunc.get(i);
+            if (singleTrans.length != 5) {
+                throw new Exception("Transition of 2DFT needs 5 fields at position " + parser.positionOf(i) + ".");
             }
             if (states.get(singleTrans[0]) == null) {
-                throw new Exception("Unknow state: " + singleTrans[0] + " in transition function.");
+                throw new Exception("Unknow state: " + singleTrans[0] + " in transition function at position " + parser.positionOf(i) + ".");
             }
             int state = states.get(singleTrans[0]);
             if (inputAlphabet.get(singleTrans[1]) == null) {
-                throw new Exception("Unknow input symbol: " + singleTrans[1] + " in transition function.");
+                throw new Exception("Unknow input symbol: " + singleTrans[1] + " in transition function at position " + parser.positionOf(i) + ".");
             }
             int symbol = inputAlphabet.get(singleTrans[1]);
             transition[state][symbol][0] = singleTrans[2];
             transition[state][symbol][1] = singleTrans[3];
-            transition[state][symbol][2] = Integer.parseInt(singleTrans[4]);
+            try {
+                transition[state][symbol][2] = Integer.parseInt(singleTrans[4]);
+            } catch (NumberFormatException e) {
+                throw new Exception("Invalid move: " + singleTrans[4] + " in transition function at position " + parser.positionOf(i) + ".");
+            }
         }
+        String initialState = parser.single();
+        if (states.get(initialState) == null) {
+            throw new Exception("Unknow initial state: " + initialState + " at position " + parser.positionOf(0) + ".");
+        }
+        ArrayList<String> finalStatesArray = parser.atoms();
+        HashSet<String> finalStates = new HashSet<String>();
+        for (int i = 0; i < finalStatesArray.size(); i++) {
+            if (states.get(finalStatesArray.get(i)) == null) {
+                throw new Exception("Unknow final state: " + finalStatesArray.get(i) + " at position " + parser.positionOf(i) + ".");
+            }
+            finalStates.add(finalStatesArray.get(i));
+        }
+        parser.end();
         //construct an instance of 2DFT
         TDFT transducer = new TDFT(initialState, states, finalStates, inputAlphabet, outputAlphabet, transition);
         return transducer;
@@ -95,81 +90,99 @@ public class Decoder {
 
     /**
      * Check whether the encoding of 2DFT is vaild
+     * States, symbols and outputs are letters and digits, input symbols are single characters,
+     * and there is at least one transition.
      * @param encoding Encoding of 2DFT
      * @return validation of encoding
      */
     public Boolean vaildTDFT(String encoding) {
-        // regular expression of 2DFT encoding
-        String pattern = "\\(\\{[A-Za-z0-9]*(,[A-Za-z0-9]*)*\\},\\{[A-Za-z0-9](,[A-Za-z0-9])*\\},\\{[A-Za-z0-9]*(,[A-Za-z0-9]*)*\\},\\{\\([A-Za-z0-9]*(,[A-Za-z0-9^$-]*){4}\\)(,\\([A-Za-z0-9]*(,[A-Za-z0-9^$-]*){4}\\))*\\},\\{[A-Za-z0-9]*\\},\\{[A-Za-z0-9]*(,[A-Za-z0-9]*)*\\}\\)";
-        Boolean validation = encoding.matches(pattern);
-        return validation;
+        try {
+            EncodingParser parser = new EncodingParser(encoding);
+            parser.begin();
+            Boolean validation = isNames(parser.atoms(), false);
+            validation &= isNames(parser.atoms(), true);
+            validation &= isNames(parser.atoms(), false);
+            ArrayList<String[]> tranFunc = parser.tuples();
+            validation &= !tranFunc.isEmpty();
+            for (String[] singleTrans : tranFunc) {
+                validation &= singleTrans.length == 5 && isName(singleTrans[0], "");
+                for (int i = 1; i < singleTrans.length; i++) {
+                    validation &= isName(singleTrans[i], "^$-");
+                }
+            }
+            validation &= isName(parser.single(), "");
+            validation &= isNames(parser.atoms(), false);
+            parser.end();
+            return validation;
+        } catch (Exception e) {
+            return false;
+        }
     }
 
     /**
      * Decode function for MSOT
      * encoding format of MSOT: ({I},{O},{C},{ϕ{c}(x);},{ϕ{c1,c2}{γ}(x,y);})
+     * The encoding is read once from left to right, every set is stored as soon as it is read.
      * @param encoding Encoding of MSOT
      * @return An instance of MSOT
      */
     public MSOT decodeMSOT(String encoding) throws Exception {
-        //split the encoding string into different parts and storing in different arrays or hashmaps
-        String[] sets = encoding.split("\\},\\{");
-        if (sets.length != 5) {
-            throw new Exception("Invalid MSOT encoding structure.");
-        }
-        String[] inAlpha = sets[0].substring(2).split(",");
-        String[] outAlpha = sets[1].split(",");
-        String[] copySetArray = sets[2].split(",");
-        String[] nodeFormulaArray = sets[3].split(";");
-        String[] edgeFormulaArray = sets[4].substring(0,sets[4].length()-2).split(";");
+        EncodingParser parser = new EncodingParser(encoding);
+        parser.begin();
+        ArrayList<String> inAlpha = parser.atoms();
+        ArrayList<String> outAlpha = parser.atoms();
+        ArrayList<String> copySetArray = parser.atoms();
         HashMap<String, Integer> inputAlphabet = new HashMap<String, Integer>();
         HashMap<String, Integer> outputAlphabet = new HashMap<String, Integer>();
         HashMap<String, Integer> copySet = new HashMap<String, Integer>();
-        Node[] nodeFormula = new Node[copySetArray.length];
-        Node[][][] edgeFormula = new Node[copySetArray.length][copySetArray.length][outAlpha.length];
-        for (int i = 0; i < inAlpha.length; i++) {
-            inputAlphabet.put(inAlpha[i],i);
+        for (int i = 0; i < inAlpha.size(); i++) {
+            inputAlphabet.put(inAlpha.get(i),i);
         }
-        for (int i = 0; i < outAlpha.length; i++) {
-            outputAlphabet.put(outAlpha[i],i);
+        for (int i = 0; i < outAlpha.size(); i++) {
+            outputAlphabet.put(outAlpha.get(i),i);
         }
-        for (int i = 0; i < copySetArray.length; i++) {
-            copySet.put(copySetArray[i],i);
+        for (int i = 0; i < copySetArray.size(); i++) {
+            copySet.put(copySetArray.get(i),i);
         }
-        for (int i = 0; i < nodeFormulaArray.length; i++) {
-            String[] formula = nodeFormulaArray[i].split("=");
-            String copySetString = formula[0].substring(2, formula[0].length()-1);
-            if (copySet.get(copySetString) == null) {
-                throw new Exception("Unknown copy set:" + copySetString + " in node formula.");
+        Node[] nodeFormula = new Node[copySetArray.size()];
+        Node[][][] edgeFormula = new Node[copySetArray.size()][copySetArray.size()][outAlpha.size()];
+        ArrayList<String[]> nodeFormulaArray = parser.formulas(1);
+        for (int i = 0; i < nodeFormulaArray.size(); i++) {
+            String[] formula = nodeFormulaArray.get(i);
+            if (formula.length != 2) {
+                throw new Exception("Node formula needs one copy set at position " + parser.positionOf(i) + ".");
+            }
+            if (copySet.get(formula[0]) == null) {
+                throw new Exception("Unknown copy set:" + formula[0] + " in node formula at position " + parser.positionOf(i) + ".");
             }
-            int copuSetNum = copySet.get(copySetString);
+            int copySetNum = copySet.get(formula[0]);
             Node root = new Node(formula[1]);
             root.parse();
-            nodeFormula[copuSetNum] = root;
-        }
-        for (int i = 0; i < edgeFormulaArray.length; i++) {
-            String[] formula = edgeFormulaArray[i].split("=");
-            String[] numInfo = formula[0].split("\\}\\{");
-            String[] cSet = numInfo[0].split(",");
-            String copySetString1 = cSet[0].substring(2);
-            String copySetString2 = cSet[1];
-            if (copySet.get(copySetString1) == null) {
-                throw new Exception("Unknown copy set:" + copySetString1 + " in edge formula.");
-            }
-            if (copySet.get(copySetString1) == null) {
-                throw new Exception("Unknown copy set:" + copySetString2 + " in edge formula.");
-            }
-            int copySetNum1 = copySet.get(cSet[0].substring(2));
-            int copySetNum2 = copySet.get(cSet[1]);
-            String outputSymbol = numInfo[1].substring(0,numInfo[1].length()-1);
-            if (outputAlphabet.get(outputSymbol) == null) {
-                throw new Exception("Unknown output symbol:" + outputSymbol + " in edge formula.");
-            }
-            int outputNum = outputAlphabet.get(numInfo[1].substring(0,numInfo[1].length()-1));
-            Node root = new Node(formula[1]);
+            nodeFormula[copySetNum] = root;
+        }
+        ArrayList<String[]> edgeFormulaArray = parser.formulas(2);
+        for (int i = 0; i < edgeFormulaArray.size(); i++) {
+            String[] formula = edgeFormulaArray.get(i);
+            if (formula.length != 4) {
+                throw new Exception("Edge formula needs two copy sets and one output symbol at position " + parser.positionOf(i) + ".");
+            }
+            if (copySet.get(formula[0]) == null) {
+                throw new Exception("Unknown copy set:" + formula[0] + " in edge formula at position " + parser.positionOf(i) + ".");
+            }
+            if (copySet.get(formula[1]) == null) {
+                throw new Exception("Unknown copy set:" + formula[1] + " in edge formula at position " + parser.positionOf(i) + ".");
+            }
+            int copySetNum1 = copySet.get(formula[0]);
+            int copySetNum2 = copySet.get(formula[1]);
+            if (outputAlphabet.get(formula[2]) == null) {
+                throw new Exception("Unknown output symbol:" + formula[2] + " in edge formula at position " + parser.positionOf(i) + ".");
+            }
+            int outputNum = outputAlphabet.get(formula[2]);
+            Node root = new Node(formula[3]);
             root.parse();
             edgeFormula[copySetNum1][copySetNum2][outputNum] = root;
         }
+        parser.end();
         //construct an instance of MSOT
         MSOT transducer = new MSOT(inputAlphabet, outputAlphabet, copySet, nodeFormula, edgeFormula);
         return transducer;
@@ -189,156 +202,100 @@ public class Decoder {
     /**
      * Decode function for SST
      * encoding format of SST: ({Q},{I},{O},{X},{q},{f:(q,b)},{t1:(q,a,q)},{t2:(q,a,x,b)})
+     * The encoding is read once from left to right, every set is stored as soon as it is read.
      * @param encoding Encoding of SST
      * @return An instance of SST
      * @throws Exception
      */
     public SST decodeSST(String encoding) throws Exception {
-        //split the encoding string into different parts and storing in different arrays or hashmaps
-        String[] sets = encoding.split("\\},\\{");
-        if (sets.length != 8) {
-            throw new Exception("Invalid SST encoding structure.");
-        }
-        String[] statesArray = sets[0].substring(2).split(",");
-        String[] inAlpha = sets[1].split(",");
-        String[] outAlpha = sets[2].split(",");
-        String[] varArray = sets[3].split(",");
-        String initialState = sets[4];
-        String[] outputFunc = sets[5].split("\\),\\(");
-        String[] tranFunc = sets[6].split("\\),\\(");
-        String[] updateFunc = sets[7].substring(0,sets[7].length()-2).split("\\),\\(");
+        EncodingParser parser = new EncodingParser(encoding);
+        parser.begin();
+        ArrayList<String> statesArray = parser.atoms();
+        ArrayList<String> inAlpha = parser.atoms();
+        ArrayList<String> outAlpha = parser.atoms();
+        ArrayList<String> varArray = parser.atoms();
         HashMap<String, Integer> states = new HashMap<String, Integer>();
         HashMap<String, Integer> inputAlphabet = new HashMap<String, Integer>();
-        HashSet<String> outputAlphabet = new HashSet<String>();
+        HashSet<String> outputAlphabet = new HashSet<String>(outAlpha);
         HashMap<String, Integer> variables = new HashMap<String, Integer>();
-        for (int i = 0; i < statesArray.length; i++) {
-            states.put(statesArray[i],i);
+        for (int i = 0; i < statesArray.size(); i++) {
+            states.put(statesArray.get(i),i);
         }
-        if (states.get(initialState) == null) {
-            throw new Exception("Unknow initial state: " + initialState + ".");
+        for (int i = 0; i < inAlpha.size(); i++) {
+            inputAlphabet.put(inAlpha.get(i),i);
         }
-        for (int i = 0; i < inAlpha.length; i++) {
-            inputAlphabet.put(inAlpha[i],i);
+        for (int i = 0; i < varArray.size(); i++) {
+            variables.put(varArray.get(i),i);
         }
-        for (int i = 0; i < outAlpha.length; i++) {
-            outputAlphabet.add(outAlpha[i]);
-        }
-        for (int i = 0; i < varArray.length; i++) {
-            variables.put(varArray[i],i);
+        String initialState = parser.single();
+        if (states.get(initialState) == null) {
+            throw new Exception("Unknow initial state: " + initialState + " at position " + parser.positionOf(0) + ".");
         }
 
-        String[] partialOutput = new String[statesArray.length];
-        String[][] stateTransition = new String[statesArray.length][inAlpha.length];
-        String[][][] variableUpdate = new String[statesArray.length][inAlpha.length][varArray.length];
-
-        String[] singleTrans;
+        String[] partialOutput = new String[statesArray.size()];
+        String[][] stateTransition = new String[statesArray.size()][inAlpha.size()];
+        String[][][] variableUpdate = new String[statesArray.size()][inAlpha.size()][varArray.size()];
 
-        if (outputFunc.length == 1) {
-            singleTrans = outputFunc[0].substring(1,outputFunc[0].length()-1).split(",");
+        ArrayList<String[]> outputFunc = parser.tuples();
+        for (int i = 0; i < outputFunc.size(); i++) {
+            String[] singleTrans = outputFunc.get(i);
+            if (singleTrans.length != 2) {
+                throw new Exception("Partial output of SST needs 2 fields at position " + parser.positionOf(i) + ".");
+            }
             if (states.get(singleTrans[0]) == null) {
-                throw new Exception("Unknow state: " + singleTrans[0] + " in partial output function.");
+                throw new Exception("Unknow state: " + singleTrans[0] + " in partial output function at position " + parser.positionOf(i) + ".");
             }
             int state = states.get(singleTrans[0]);
             partialOutput[state] = singleTrans[1];
-        } else {
-            for (int i = 0; i < outputFunc.length; i++) {
-                if (i == 0) {
-                    singleTrans = outputFunc[i].substring(1).split(",");
-                } else if (i == outputFunc.length-1) {
-                    singleTrans = outputFunc[i].substring(0,outputFunc[i].length()-1).split(",");
-                } else {
-                    singleTrans = outputFunc[i].split(",");
-                }
-                if (states.get(singleTrans[0]) == null) {
-                    throw new Exception("Unknow state: " + singleTrans[0] + " in partial output function.");
-                }
-                int state = states.get(singleTrans[0]);
-                partialOutput[state] = singleTrans[1];
-            }
         }
-        
-        if (tranFunc.length == 1) {
-            singleTrans = tranFunc[0].substring(1,tranFunc[0].length()-1).split(",");
+
+        ArrayList<String[]> tranFunc = parser.tuples();
+        for (int i = 0; i < tranFunc.size(); i++) {
+            String[] singleTrans = tranFunc.get(i);
+            if (singleTrans.length != 3) {
+                throw new Exception("State transition of SST needs 3 fields at position " + parser.positionOf(i) + ".");
+            }
             if (states.get(singleTrans[0]) == null) {
-                throw new Exception("Unknow state: " + singleTrans[0] + " in state transition function.");
+                throw new Exception("Unknow state: " + singleTrans[0] + " in state transition function at position " + parser.positionOf(i) + ".");
             }
             int state = states.get(singleTrans[0]);
             if (inputAlphabet.get(singleTrans[1]) == null) {
-                throw new Exception("Unknow input symbol: " + singleTrans[1] + " in state transition function.");
+                throw new Exception("Unknow input symbol: " + singleTrans[1] + " in state transition function at position " + parser.positionOf(i) + ".");
             }
             int symbol = inputAlphabet.get(singleTrans[1]);
             stateTransition[state][symbol] = singleTrans[2];
-        } else {
-            for (int i = 0; i < tranFunc.length; i++) {
-                if (i == 0) {
-                     singleTrans = tranFunc[i].substring(1).split(",");
-                 } else if (i == tranFunc.length-1) {
-                    singleTrans = tranFunc[i].substring(0,tranFunc[i].length()-1).split(",");
-                } else {
-                     singleTrans = tranFunc[i].split(",");
-                }
-                if (states.get(singleTrans[0]) == null) {
-                    throw new Exception("Unknow state: " + singleTrans[0] + " in state transition function.");
-                }
-                int state = states.get(singleTrans[0]);
-                if (inputAlphabet.get(singleTrans[1]) == null) {
-                    throw new Exception("Unknow input symbol: " + singleTrans[1] + " in state transition function.");
-                }
-                int symbol = inputAlphabet.get(singleTrans[1]);
-                stateTransition[state][symbol] = singleTrans[2];
-            }
         }
-        if (updateFunc.length == 1) {
-            singleTrans = updateFunc[0].substring(1,updateFunc[0].length()-1).split(",");
+
+        ArrayList<String[]> updateFunc = parser.tuples();
+        for (int i = 0; i < updateFunc.size(); i++) {
+            String[] singleTrans = updateFunc.get(i);
+            if (singleTrans.length != 3 && singleTrans.length != 4) {
+                throw new Exception("Variable update of SST needs 4 fields at position " + parser.positionOf(i) + ".");
+            }
             if (states.get(singleTrans[0]) == null) {
-                throw new Exception("Unknow state: " + singleTrans[0] + " in variable update function.");
+                throw new Exception("Unknow state: " + singleTrans[0] + " in variable update function at position " + parser.positionOf(i) + ".");
             }
             int state = states.get(singleTrans[0]);
             if (inputAlphabet.get(singleTrans[1]) == null) {
-                throw new Exception("Unknow input symbol: " + singleTrans[1] + " in variable update function.");
+                throw new Exception("Unknow input symbol: " + singleTrans[1] + " in variable update function at position " + parser.positionOf(i) + ".");
             }
             int symbol = inputAlphabet.get(singleTrans[1]);
             if (variables.get(singleTrans[2]) == null) {
-                throw new Exception("Unknow variable: " + singleTrans[2] + " in variable update function.");
+                throw new Exception("Unknow variable: " + singleTrans[2] + " in variable update function at position " + parser.positionOf(i) + ".");
             }
             int var = variables.get(singleTrans[2]);
+            // an update may leave out the empty value
             if (singleTrans.length == 3) {
                 variableUpdate[state][symbol][var] = "";
             } else {
                 variableUpdate[state][symbol][var] = singleTrans[3];
             }
-        } else {
-            for (int i = 0; i < updateFunc.length; i++) {
-                if (i == 0) {
-                    singleTrans = updateFunc[i].substring(1).split(",");
-                } else if (i == updateFunc.length-1) {
-                     singleTrans = updateFunc[i].substring(0,updateFunc[i].length()-1).split(",");
-                 } else {
-                     singleTrans = updateFunc[i].split(",");
-                }
-                if (states.get(singleTrans[0]) == null) {
-                    throw new Exception("Unknow state: " + singleTrans[0] + " in variable update function.");
-                }
-                int state = states.get(singleTrans[0]);
-                if (inputAlphabet.get(singleTrans[1]) == null) {
-                    throw new Exception("Unknow input symbol: " + singleTrans[1] + " in variable update function.");
-                }
-                int symbol = inputAlphabet.get(singleTrans[1]);
-                if (variables.get(singleTrans[2]) == null) {
-                    throw new Exception("Unknow variable: " + singleTrans[2] + " in variable update function.");
-                }
-                int var = variables.get(singleTrans[2]);
-                if (singleTrans.length == 3) {
-                    variableUpdate[state][symbol][var] = "";
-                } else {
-                    variableUpdate[state][symbol][var] = singleTrans[3];
-                }
-            }
         }
+        parser.end();
 
         for (int i = 0; i < variableUpdate.length; i++) {
             for (int j = 0; j < variableUpdate[i].length; j++) {
-                Boolean[] count = new Boolean[varArray.length];
+                Boolean[] count = new Boolean[varArray.size()];
                 for (int k = 0; k < count.length; k++) {
                     count[k] = false;
                 }
@@ -364,14 +321,89 @@ public class Decoder {
 
     /**
      * Check whether the encoding of SST is vaild
+     * States, symbols and values are letters and digits, variables are single characters,
+     * and every function has at least one entry.
      * @param encoding Encoding of SST
      * @return validation of encoding
      */
     public Boolean vaildSST(String encoding) {
-        // regular expression of SST encoding
-        String pattern = "\\(\\{[A-Za-z0-9]*(,[A-Za-z0-9]*)*\\}(,\\{[A-Za-z0-9]*(,[A-Za-z0-9]*)*\\}){2},\\{[A-Za-z0-9](,[A-Za-z0-9])*\\},\\{[A-Za-z0-9]*\\},\\{\\([A-Za-z0-9]*,[A-Za-z0-9]*\\)(,\\([A-Za-z0-9]*,[A-Za-z0-9]*\\))*\\},\\{\\([A-Za-z0-9]*(,[A-Za-z0-9]*){2}\\)(,\\([A-Za-z0-9]*(,[A-Za-z0-9]*){2}\\))*\\},\\{\\([A-Za-z0-9]*,[A-Za-z0-9]*,[A-Za-z0-9],[A-Za-z0-9]*\\)(,\\([A-Za-z0-9]*,[A-Za-z0-9]*,[A-Za-z0-9],[A-Za-z0-9]*\\))*\\}\\)";
-        Boolean validation = encoding.matches(pattern);
-        return validation;
+        try {
+            EncodingParser parser = new EncodingParser(encoding);
+            parser.begin();
+            Boolean validation = isNames(parser.atoms(), false);
+            validation &= isNames(parser.atoms(), false);
+            validation &= isNames(parser.atoms(), false);
+            validation &= isNames(parser.atoms(), true);
+            validation &= isName(parser.single(), "");
+            // fields of the partial output, state transition and variable update functions
+            int[] fieldCount = {2, 3, 4};
+            for (int i = 0; i < fieldCount.length; i++) {
+                ArrayList<String[]> function = parser.tuples();
+                validation &= !function.isEmpty();
+                for (String[] singleTrans : function) {
+                    validation &= singleTrans.length == fieldCount[i];
+                    for (int j = 0; j < singleTrans.length; j++) {
+                        validation &= isName(singleTrans[j], "");
+                    }
+                    // the updated variable is a single character
+                    validation &= i < 2 || singleTrans.length < 3 || singleTrans[2].length() == 1;
+                }
+            }
+            parser.end();
+            return validation;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    /**
+     * Check whether every name of a set is letters and digits
+     * @param names names of a set
+     * @param single whether every name must be a single character
+     * @return validation of the names
+     */
+    private static boolean isNames(ArrayList<String> names, boolean single) {
+        for (String name : names) {
+            if (!isName(name, "") || (single && name.length() != 1)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Check whether a name is letters and digits
+     * @param name name
+     * @param extra other characters allowed in the name
+     * @return validation of the name
+     */
+    private static boolean isName(String name, String extra) {
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (!(c >= 'A' && c <= 'Z') && !(c >= 'a' && c <= 'z') && !(c >= '0' && c <= '9') && extra.indexOf(c) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Decode a model of a type named on the command line
+     * @param type type of the model, 2DFT, SST or MSOT in any case
+     * @param encoding Encoding of the model
+     * @return An instance of the model
+     */
+    public Model decodeModel(String type, String encoding) throws Exception {
+        switch (type.toUpperCase()) {
+            case "2DFT":
+                return decodeTDFT(encoding);
+            case "SST":
+                return decodeSST(encoding);
+            case "MSOT":
+                return decodeMSOT(encoding);
+            default:
+                throw new Exception("Unknown model type " + type + ".");
+        }
     }
 
     /**
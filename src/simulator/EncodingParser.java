@@ -0,0 +1,245 @@
+package simulator;
+
+import java.util.ArrayList;
+
+/**
+ * Single-pass reader of model encodings such as ({Q},{I},{O},{(q,a,b,q,n)},{q},{F})
+ * Sets are read in order with atoms, single, tuples or formulas, each reading the comma before it.
+ * Every malformed encoding is reported with the position of the first character that does not fit.
+ */
+class EncodingParser {
+
+    private String encoding;
+    private int position;
+
+    // number of sets read so far
+    private int sets;
+
+    // positions of the items returned by the last call reading a set
+    private ArrayList<Integer> itemPosition = new ArrayList<Integer>();
+
+    EncodingParser(String encoding) {
+        this.encoding = encoding;
+        this.position = 0;
+        this.sets = 0;
+    }
+
+    /**
+     * Read the opening bracket of the encoding
+     * @throws Exception if the encoding does not start with (
+     */
+    void begin() throws Exception {
+        expect('(');
+    }
+
+    /**
+     * Read the closing bracket of the encoding
+     * @throws Exception if more sets or characters follow
+     */
+    void end() throws Exception {
+        expect(')');
+        if (position != encoding.length()) {
+            throw error("end of encoding");
+        }
+    }
+
+    /**
+     * Read a set of atoms such as {q0,q1}
+     * An empty set holds one empty atom.
+     * @return atoms of the set
+     * @throws Exception if the set is malformed
+     */
+    ArrayList<String> atoms() throws Exception {
+        openSet();
+        ArrayList<String> atoms = new ArrayList<String>();
+        itemPosition.add(position);
+        atoms.add(atom());
+        while (accept(',')) {
+            itemPosition.add(position);
+            atoms.add(atom());
+        }
+        expect('}');
+        return atoms;
+    }
+
+    /**
+     * Read a set of exactly one atom such as {q0}
+     * @return atom of the set
+     * @throws Exception if the set is malformed
+     */
+    String single() throws Exception {
+        openSet();
+        itemPosition.add(position);
+        String atom = atom();
+        expect('}');
+        return atom;
+    }
+
+    /**
+     * Read a set of tuples such as {(q0,a,q1),(q1,b,q0)}
+     * @return fields of every tuple
+     * @throws Exception if the set is malformed
+     */
+    ArrayList<String[]> tuples() throws Exception {
+        openSet();
+        ArrayList<String[]> tuples = new ArrayList<String[]>();
+        if (accept('}')) {
+            return tuples;
+        }
+        tuples.add(tuple());
+        while (accept(',')) {
+            tuples.add(tuple());
+        }
+        expect('}');
+        return tuples;
+    }
+
+    /**
+     * Read a set of formulas such as {F{1,2}{a}=edge{a}(x,y);F{2,2}{a}=true}
+     * The labels of a formula are the atoms in the braces after its name, the formula text runs to
+     * the next ; or closing brace outside of brackets.
+     * @param groups number of label groups before =
+     * @return labels of every formula followed by its text
+     * @throws Exception if the set is malformed
+     */
+    ArrayList<String[]> formulas(int groups) throws Exception {
+        openSet();
+        ArrayList<String[]> formulas = new ArrayList<String[]>();
+        while (!accept('}')) {
+            itemPosition.add(position);
+            ArrayList<String> fields = new ArrayList<String>();
+            atom();
+            for (int i = 0; i < groups; i++) {
+                expect('{');
+                fields.add(atom());
+                while (accept(',')) {
+                    fields.add(atom());
+                }
+                expect('}');
+            }
+            expect('=');
+            fields.add(formula());
+            formulas.add(fields.toArray(new String[0]));
+            if (!accept(';') && peek() != '}') {
+                throw error("';' or '}'");
+            }
+        }
+        return formulas;
+    }
+
+    /**
+     * Get the position of an item returned by the last call reading a set
+     * @param index index of the item in the set
+     * @return position of the item in the encoding
+     */
+    int positionOf(int index) {
+        return itemPosition.get(index);
+    }
+
+    /**
+     * Read the comma before every set but the first and the opening brace
+     * @throws Exception if either is missing
+     */
+    private void openSet() throws Exception {
+        if (sets > 0) {
+            expect(',');
+        }
+        expect('{');
+        sets++;
+        itemPosition.clear();
+    }
+
+    /**
+     * Read a tuple such as (q0,a,q1)
+     * @return fields of the tuple
+     * @throws Exception if the tuple is malformed
+     */
+    private String[] tuple() throws Exception {
+        itemPosition.add(position);
+        expect('(');
+        ArrayList<String> fields = new ArrayList<String>();
+        fields.add(atom());
+        while (accept(',')) {
+            fields.add(atom());
+        }
+        expect(')');
+        return fields.toArray(new String[0]);
+    }
+
+    /**
+     * Read an atom, the longest run of characters other than brackets, braces and commas
+     * @return atom, possibly empty
+     */
+    private String atom() {
+        int start = position;
+        while (position < encoding.length() && !isDelimiter(encoding.charAt(position))) {
+            position++;
+        }
+        return encoding.substring(start, position);
+    }
+
+    /**
+     * Read the text of a formula up to a ; or closing brace outside of brackets
+     * @return text of the formula
+     * @throws Exception if a bracket is not closed
+     */
+    private String formula() throws Exception {
+        int start = position;
+        int depth = 0;
+        while (position < encoding.length()) {
+            char c = encoding.charAt(position);
+            if (c == '(' || c == '{') {
+                depth++;
+            } else if (c == ')' || c == '}') {
+                if (depth == 0) {
+                    break;
+                }
+                depth--;
+            } else if (c == ';' && depth == 0) {
+                break;
+            }
+            position++;
+        }
+        if (depth > 0) {
+            throw error("closing bracket");
+        }
+        return encoding.substring(start, position);
+    }
+
+    /**
+     * Check whether a character ends an atom
+     * @param c character
+     * @return whether c is a delimiter
+     */
+    private static boolean isDelimiter(char c) {
+        return c == ',' || c == '(' || c == ')' || c == '{' || c == '}';
+    }
+
+    private char peek() {
+        return position < encoding.length() ? encoding.charAt(position) : 0;
+    }
+
+    private boolean accept(char c) {
+        if (peek() == c && position < encoding.length()) {
+            position++;
+            return true;
+        }
+        return false;
+    }
+
+    private void expect(char c) throws Exception {
+        if (!accept(c)) {
+            throw error("'" + c + "'");
+        }
+    }
+
+    /**
+     * Build the error for an unexpected character at the current position
+     * @param expected description of what should have been read
+     * @return exception to throw
+     */
+    private Exception error(String expected) {
+        String found = position < encoding.length() ? "'" + encoding.charAt(position) + "'" : "end of encoding";
+        return new Exception("Expected " + expected + " but found " + found + " at position " + position + ".");
+    }
+}
@@ -0,0 +1,119 @@
+package simulator;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import simulator.transducer.*;
+
+/**
+ * Non-interactive run of one model over a stream of input strings
+ * Input strings are read one per line from a file or standard input, and the output of every line is written
+ * as one line to a file or standard output. The output is only flushed at the end,
+ * so the simulator can sit inside a shell pipeline.
+ */
+public class Pipeline {
+
+    // size of the reader and writer buffers in characters
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private Model model;
+
+    public Pipeline(Model model) {
+        this.model = model;
+    }
+
+    /**
+     * Run a pipeline from command-line arguments
+     * --model and --type choose the model, --input and --output name files used instead of standard input and output.
+     * @param args command-line arguments
+     * @throws Exception if the arguments or the model encoding are invalid
+     */
+    public static void run(String[] args) throws Exception {
+        String modelPath = null;
+        String type = null;
+        String inputPath = null;
+        String outputPath = null;
+        for (int i = 0; i < args.length; i += 2) {
+            if (i+1 >= args.length) {
+                throw new Exception("Missing value of " + args[i] + ".");
+            }
+            switch (args[i]) {
+                case "--model":
+                    modelPath = args[i+1];
+                    break;
+                case "--type":
+                    type = args[i+1];
+                    break;
+                case "--input":
+                    inputPath = args[i+1];
+                    break;
+                case "--output":
+                    outputPath = args[i+1];
+                    break;
+                default:
+                    throw new Exception("Unknown option " + args[i] + ".");
+            }
+        }
+        if (modelPath == null || type == null) {
+            throw new Exception("Usage: --model <path> --type <2DFT|SST|MSOT> [--input <path>] [--output <path>]");
+        }
+
+        Decoder decoder = new Decoder();
+        String modelDesc = Simulator.readEncoding(modelPath);
+        if (!decoder.vaildEncoding(modelDesc)) {
+            throw new Exception("Encoding invalid: " + modelPath);
+        }
+        Pipeline pipeline = new Pipeline(decoder.decodeModel(type, modelDesc));
+
+        BufferedReader in = inputPath == null
+                ? new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8), BUFFER_SIZE)
+                : Files.newBufferedReader(Path.of(inputPath), StandardCharsets.UTF_8);
+        // standard output is written directly, System.out would flush on every line
+        Writer out = outputPath == null
+                ? new BufferedWriter(new OutputStreamWriter(new FileOutputStream(FileDescriptor.out), StandardCharsets.UTF_8), BUFFER_SIZE)
+                : Files.newBufferedWriter(Path.of(outputPath), StandardCharsets.UTF_8);
+        try (BufferedReader reader = in; Writer writer = out) {
+            pipeline.stream(reader, writer);
+        }
+    }
+
+    /**
+     * Run the model over every line of a reader
+     * A line that is not a vaild input string, or whose output is undefined, is reported on standard error
+     * and gets an empty output line, so output lines stay in step with input lines.
+     * @param in reader of input strings, one per line
+     * @param out writer receiving one output line per input line
+     * @throws IOException if reading or writing fails
+     */
+    public void stream(BufferedReader in, Writer out) throws IOException {
+        // runs are checked one by one, runAll could not tell which of them failed
+        FailureTrace trace = new FailureTrace();
+        long lineNumber = 0;
+        String line = in.readLine();
+        while (line != null) {
+            lineNumber++;
+            if (!model.vaildInput(line)) {
+                System.err.println("Invaild input at line " + lineNumber + ".");
+            } else {
+                trace.clear();
+                String outputString = model.run(line, trace);
+                if (trace.getReason() == null) {
+                    out.write(outputString);
+                } else {
+                    System.err.println("Undefined output at line " + lineNumber + ": " + trace.getReason());
+                }
+            }
+            out.write('\n');
+            line = in.readLine();
+        }
+    }
+}
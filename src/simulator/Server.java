@@ -0,0 +1,215 @@
+package simulator;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import simulator.transducer.*;
+
+/**
+ * Server answering runs of models loaded once at startup
+ * Clients connect to a local TCP port or UNIX-domain socket and send one request per line,
+ * a model id and the input string separated by a space. Every request gets one line back,
+ * the output string, or ERROR followed by a message.
+ * Each connection is served on its own virtual thread where the JVM has them, otherwise on a pooled thread.
+ */
+public class Server {
+
+    // prefix of the answer to a request that could not be run
+    private static final String ERROR = "ERROR ";
+
+    // file type bits of unix:mode and the type of a socket
+    private static final int S_IFMT = 0170000;
+    private static final int S_IFSOCK = 0140000;
+
+    // compiled models by id, filled before the server starts accepting connections
+    private HashMap<String, Model> models = new HashMap<String, Model>();
+
+    private Decoder decoder;
+
+    public Server(Decoder decoder) {
+        this.decoder = decoder;
+    }
+
+    /**
+     * Start a server from command-line arguments
+     * The first argument is a TCP port on the loopback address or the path of a UNIX-domain socket,
+     * every following argument loads a model as id=type:path with type 2DFT, SST or MSOT.
+     * @param args command-line arguments after --serve
+     * @throws Exception if a model can not be loaded or the socket can not be opened
+     */
+    public static void serve(String[] args) throws Exception {
+        if (args.length < 2) {
+            throw new Exception("Usage: --serve <port|socket> <id>=<type>:<path> ...");
+        }
+        Server server = new Server(new Decoder());
+        for (int i = 1; i < args.length; i++) {
+            int equals = args[i].indexOf('=');
+            int colon = args[i].indexOf(':', equals+1);
+            if (equals <= 0 || colon < 0) {
+                throw new Exception("Invalid model argument " + args[i] + ".");
+            }
+            server.load(args[i].substring(0, equals), args[i].substring(equals+1, colon), args[i].substring(colon+1));
+        }
+        server.listen(args[0]);
+    }
+
+    /**
+     * Decode a model from the file of its encoding and add it under an id
+     * @param modelId id used by requests
+     * @param type type of the model, 2DFT, SST or MSOT
+     * @param path file address of the encoding
+     * @throws Exception if the encoding is invalid
+     */
+    public void load(String modelId, String type, String path) throws Exception {
+        String modelDesc = Simulator.readEncoding(path);
+        if (!decoder.vaildEncoding(modelDesc)) {
+            throw new Exception("Encoding invalid: " + path);
+        }
+        models.put(modelId, decoder.decodeModel(type, modelDesc));
+    }
+
+    /**
+     * Accept connections until the process is stopped
+     * @param address TCP port on the loopback address, or path of a UNIX-domain socket
+     * @throws IOException if the socket can not be opened
+     */
+    public void listen(String address) throws IOException {
+        ServerSocketChannel serverChannel;
+        SocketAddress socketAddress;
+        if (address.matches("[0-9]+")) {
+            serverChannel = ServerSocketChannel.open(StandardProtocolFamily.INET);
+            socketAddress = new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(address));
+        } else {
+            removeStaleSocket(Path.of(address));
+            serverChannel = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+            socketAddress = UnixDomainSocketAddress.of(address);
+        }
+        ExecutorService connections = connectionExecutor();
+        try (ServerSocketChannel server = serverChannel) {
+            server.bind(socketAddress);
+            System.err.println("Serving " + models.size() + " models on " + address + ".");
+            while (true) {
+                final SocketChannel channel = server.accept();
+                connections.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        handle(channel);
+                    }
+                });
+            }
+        } finally {
+            connections.shutdown();
+        }
+    }
+
+    /**
+     * Remove a socket file left by a server that is no longer running, which would fail the bind
+     * Any other file at the path, or a socket some server still listens on, is left alone.
+     * @param path path of the UNIX-domain socket
+     * @throws IOException if the path is taken by anything but a stale socket
+     */
+    private static void removeStaleSocket(Path path) throws IOException {
+        if (!Files.exists(path, LinkOption.NOFOLLOW_LINKS)) {
+            return;
+        }
+        int mode;
+        try {
+            mode = (Integer) Files.getAttribute(path, "unix:mode", LinkOption.NOFOLLOW_LINKS);
+        } catch (UnsupportedOperationException e) {
+            throw new IOException("File " + path + " already exists.");
+        }
+        if ((mode & S_IFMT) != S_IFSOCK) {
+            throw new IOException("File " + path + " already exists and is not a socket.");
+        }
+        try {
+            SocketChannel.open(UnixDomainSocketAddress.of(path)).close();
+        } catch (ConnectException e) {
+            // nothing accepts connections on the socket any more
+            Files.delete(path);
+            return;
+        }
+        throw new IOException("Another server is listening on " + path + ".");
+    }
+
+    /**
+     * Create the executor running one task per connection
+     * Virtual threads are looked up reflectively so the simulator still runs on JVMs without them.
+     * @return executor starting a virtual thread per task, or a cached thread pool
+     */
+    private static ExecutorService connectionExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    /**
+     * Answer the requests of one connection until the client closes it
+     * @param channel connected client
+     */
+    private void handle(SocketChannel channel) {
+        try (SocketChannel client = channel;
+             BufferedReader in = new BufferedReader(new InputStreamReader(Channels.newInputStream(client), StandardCharsets.UTF_8));
+             BufferedWriter out = new BufferedWriter(new OutputStreamWriter(Channels.newOutputStream(client), StandardCharsets.UTF_8))) {
+            String request = in.readLine();
+            while (request != null) {
+                out.write(answer(request));
+                out.write('\n');
+                // pipelined requests are answered in one write, the answers are sent once the client waits
+                if (!in.ready()) {
+                    out.flush();
+                }
+                request = in.readLine();
+            }
+            out.flush();
+        } catch (IOException e) {
+            System.err.println("Connection closed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Run one request
+     * @param request model id and input string separated by a space
+     * @return Output string, or an error message
+     */
+    private String answer(String request) {
+        int space = request.indexOf(' ');
+        String modelId = space < 0 ? request : request.substring(0, space);
+        String inputString = space < 0 ? "" : request.substring(space+1);
+        Model model = models.get(modelId);
+        if (model == null) {
+            return ERROR + "Unknown model " + modelId + ".";
+        }
+        if (!model.vaildInput(inputString)) {
+            return ERROR + "Invaild input.";
+        }
+        try {
+            FailureTrace trace = new FailureTrace();
+            String outputString = model.run(inputString, trace);
+            // an undefined output must not look like an empty one
+            return trace.getReason() == null ? outputString : ERROR + trace.getReason();
+        } catch (RuntimeException e) {
+            return ERROR + e.getMessage();
+        }
+    }
+}
@@ -1,6 +1,8 @@
 package simulator;
-import java.io.FileInputStream;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.Scanner;
 
 import simulator.transducer.*;
@@ -43,31 +45,55 @@ public class Simulator {
      * @throws SQLException
      */
     public static void main(String[] args){
+        // --serve answers requests on a socket instead of the interactive menu
+        if (args.length > 0 && args[0].equals("--serve")) {
+            try {
+                Server.serve(Arrays.copyOfRange(args, 1, args.length));
+            } catch (Exception e) {
+                System.err.println(e.getMessage());
+                System.exit(1);
+            }
+            return;
+        }
+        // any other options run one model over a stream of input strings
+        if (args.length > 0) {
+            try {
+                Pipeline.run(args);
+            } catch (Exception e) {
+                System.err.println(e.getMessage());
+                System.exit(1);
+            }
+            return;
+        }
         // initialize and run the program
         simulator = new Simulator();
         simulator.run();
     }
 
-    public String readEncoding(String path) throws Exception{
-        String modelDesc= "";
-        int data;
-
-        try (FileInputStream fileInputStream = new FileInputStream(path)) {
-            data = fileInputStream.read();
-            while(data != -1) {
-                // ignore tab, space and return characters
-                if ((char) data == ' ' || data == 9 || data == 10 || data == 13) {
-                    data = fileInputStream.read();
-                } else {
-                    modelDesc+=(char) data;
-                    data = fileInputStream.read();
-                }
-            }
+    /**
+     * Read the encoding of a model from a file, dropping tab, space and return characters
+     * The file is read in one call and filtered in one pass, each byte is taken as one character.
+     * @param path file address of the encoding
+     * @return encoding without whitespace, empty if the file can not be read
+     */
+    public static String readEncoding(String path) throws Exception{
+        byte[] data;
+        try {
+            data = Files.readAllBytes(Path.of(path));
         } catch (IOException e1) {
             e1.printStackTrace();
+            return "";
         }
 
-        return modelDesc;
+        char[] modelDesc = new char[data.length];
+        int length = 0;
+        for (byte b : data) {
+            // ignore tab, space and return characters
+            if (b != ' ' && b != 9 && b != 10 && b != 13) {
+                modelDesc[length++] = (char) (b & 0xff);
+            }
+        }
+        return new String(modelDesc, 0, length);
     }
 
     private void run(){
@@ -148,7 +174,7 @@ public class Simulator {
                         inputString = sc.nextLine();
                         while (!inputString.equals("q")) {
                             if (tdft.vaildInput(inputString)) {
-                                String output = tdft.run(inputString);
+                                String output = tdft.run(inputString, new ConsoleTrace(true));
                                 System.out.println("Output:");
                                 System.out.println(output);
                                 System.out.println("Please enter the input string:");
@@ -204,7 +230,13 @@ public class Simulator {
                         inputString = sc.nextLine();
                         while (!inputString.equals("q")) {
                             if (msot.vaildInput(inputString)) {
-                                String output = msot.run(inputString);
+                                // an undefined output is only reported to the trace, it is shown here
+                                String output = msot.run(inputString, new TraceListener() {
+                                    @Override
+                                    public void fail(String reason) {
+                                        System.err.println("Error. " + reason);
+                                    }
+                                });
                                 System.out.println("Output:");
                                 System.out.println(output);
                                 System.out.println("Please enter the input string:");
@@ -260,7 +292,7 @@ public class Simulator {
                         inputString = sc.nextLine();
                         while (!inputString.equals("q")) {
                             if (sst.vaildInput(inputString)) {
-                                String output = sst.run(inputString);
+                                String output = sst.run(inputString, new ConsoleTrace(false));
                                 System.out.println("Output:");
                                 System.out.println(output);
                                 System.out.println("Please enter the input string:");
@@ -0,0 +1,90 @@
+package simulator.transducer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Executor running many input strings against one model on a fixed number of threads
+ * Input strings are cut into consecutive chunks, every chunk is given to runAll of the model by one thread
+ * and its outputs are written to its own range of the results, so threads share nothing but the model.
+ */
+public class BatchExecutor {
+
+    // number of chunks per thread, more chunks even out input strings of different lengths
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    private ExecutorService threads;
+    private int threadCount;
+
+    /**
+     * Start the threads of an executor
+     * Threads do not keep the JVM running, shutdown stops them earlier.
+     * @param threadCount number of threads
+     */
+    public BatchExecutor(int threadCount) {
+        this.threadCount = threadCount;
+        this.threads = Executors.newFixedThreadPool(threadCount, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "batch");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Run a model over many input strings in parallel
+     * @param model compiled model
+     * @param inputStrings input strings
+     * @return Output strings in the order of the input strings
+     * @throws InterruptedException if the calling thread is interrupted while waiting
+     */
+    public List<String> runAll(final Model model, final List<String> inputStrings) throws InterruptedException {
+        final String[] outputs = new String[inputStrings.size()];
+        int chunkCount = Math.min(inputStrings.size(), threadCount*CHUNKS_PER_THREAD);
+        ArrayList<Callable<Void>> chunks = new ArrayList<Callable<Void>>();
+        for (int i = 0; i < chunkCount; i++) {
+            final int from = (int) ((long) i*inputStrings.size()/chunkCount);
+            final int to = (int) ((long) (i+1)*inputStrings.size()/chunkCount);
+            chunks.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    List<String> chunk = model.runAll(inputStrings.subList(from, to));
+                    for (int j = 0; j < chunk.size(); j++) {
+                        outputs[from+j] = chunk.get(j);
+                    }
+                    return null;
+                }
+            });
+        }
+        for (Future<Void> chunk : threads.invokeAll(chunks)) {
+            try {
+                chunk.get();
+            } catch (ExecutionException e) {
+                // unknown input symbols and other failures of a run are thrown as they are
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                } else if (e.getCause() instanceof Error) {
+                    throw (Error) e.getCause();
+                }
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+        return Arrays.asList(outputs);
+    }
+
+    /**
+     * Stop the threads once the running batches are finished
+     */
+    public void shutdown() {
+        threads.shutdown();
+    }
+}
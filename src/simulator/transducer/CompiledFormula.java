@@ -0,0 +1,114 @@
+package simulator.transducer;
+
+/**
+ * Base class of MSOT formulas compiled to JVM classes
+ * A generated subclass implements test with the logic and quantifier loops of one formula inlined,
+ * atoms are evaluated by the helpers below on the input graph of the current run.
+ * Generated classes live in their own class loader, so everything they use here is public or protected.
+ */
+public abstract class CompiledFormula {
+
+    // input graph of the current run, see MSOT
+    private int[] inputSymbol;
+    private int width;
+    private int vertexCount;
+    private long[][] outputNodeSet;
+    private int[][] nextPosition;
+    private int[][] runStart;
+
+    // all compiled edge formulas, used for references between them
+    private CompiledFormula[][][] edgeFormula;
+
+    protected CompiledFormula() {
+    }
+
+    /**
+     * Evaluate the formula
+     * @param x vertex number of x
+     * @param y vertex number of y, ignored by node formulas
+     * @return true or false
+     */
+    public abstract boolean test(int x, int y);
+
+    /**
+     * Create another instance of the generated class, to be bound to the runs of another context
+     * @return new instance
+     */
+    CompiledFormula copy() {
+        try {
+            return getClass().getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Set the input graph of the next run
+     * @param inputSymbol input symbol numbers indexed by position
+     * @param width number of vertices in each copy
+     * @param vertexCount number of vertices in all copies
+     * @param outputNodeSet output nodes of each copy, one bit per position
+     * @param nextPosition next occurrence of each symbol of next atoms from every position
+     * @param runStart start of the run of each symbol of fps atoms ending at every position
+     * @param edgeFormula all compiled edge formulas
+     */
+    void bind(int[] inputSymbol, int width, int vertexCount, long[][] outputNodeSet, int[][] nextPosition, int[][] runStart, CompiledFormula[][][] edgeFormula) {
+        this.inputSymbol = inputSymbol;
+        this.width = width;
+        this.vertexCount = vertexCount;
+        this.outputNodeSet = outputNodeSet;
+        this.nextPosition = nextPosition;
+        this.runStart = runStart;
+        this.edgeFormula = edgeFormula;
+    }
+
+    protected final int vertexCount() {
+        return vertexCount;
+    }
+
+    protected final int copyStart(int vertex) {
+        return (vertex/width)*width;
+    }
+
+    protected final int copyEnd(int vertex) {
+        return (vertex/width+1)*width;
+    }
+
+    protected final boolean out(int vertex, int symbol) {
+        int position = vertex%width;
+        return position != width-1 && inputSymbol[position] == symbol;
+    }
+
+    protected final boolean edge(int vertex1, int vertex2, int symbol) {
+        return vertex1+1 == vertex2 && out(vertex1, symbol);
+    }
+
+    protected final boolean next(int vertex1, int vertex2, int symbol) {
+        int position = vertex1%width;
+        int next = position == width-1 ? 0 : symbol < 0 ? width-1 : nextPosition[symbol][position+1];
+        return vertex2%width == next;
+    }
+
+    protected final boolean fps(int vertex1, int vertex2, int symbol) {
+        int position = vertex1%width;
+        int first = symbol < 0 ? position : runStart[symbol][position];
+        return vertex2%width == first;
+    }
+
+    protected final boolean less(int vertex1, int vertex2) {
+        return vertex1%width < vertex2%width;
+    }
+
+    protected final boolean ref(int copy1, int copy2, int output, int vertex1, int vertex2) {
+        CompiledFormula target = edgeFormula[copy1][copy2][output];
+        if (target == null || vertex1/width != copy1 || vertex2/width != copy2
+                || !isOutputNode(copy1, vertex1%width) || !isOutputNode(copy2, vertex2%width)) {
+            return false;
+        }
+        return target.test(vertex1, vertex2);
+    }
+
+    private boolean isOutputNode(int copy, int position) {
+        return (outputNodeSet[copy][position >>> 6] & 1L << position) != 0;
+    }
+}
@@ -0,0 +1,54 @@
+package simulator.transducer;
+
+/**
+ * Prints the running chain of states of a transducer to the console.
+ * A 2DFT prints (state,position) pairs, a SST prints states only.
+ */
+public class ConsoleTrace implements TraceListener {
+
+    // whether head positions are printed alongside states
+    private boolean showPosition;
+
+    private String[] stateNames;
+
+    public ConsoleTrace(boolean showPosition) {
+        this.showPosition = showPosition;
+    }
+
+    @Override
+    public void start(String[] stateNames, String[] outputNames, int state, int position) {
+        this.stateNames = stateNames;
+        System.out.println("Running chain of states:");
+        if (showPosition) {
+            System.out.printf("(" + stateNames[state] + "," + position + ")");
+        } else {
+            System.out.printf(stateNames[state]);
+        }
+    }
+
+    @Override
+    public void step(int state, int position, int output) {
+        if (showPosition) {
+            System.out.printf("->(" + stateNames[state] + "," + position + ")");
+        } else {
+            System.out.printf("->" + stateNames[state]);
+        }
+    }
+
+    @Override
+    public void finish() {
+        System.out.printf("\n");
+    }
+
+    @Override
+    public void variables(String[] names, String[] values) {
+        System.out.println("Variables:");
+        for (int i = 0; i < names.length; i++) {
+            if (values[i] != null) {
+                System.out.println(names[i] + ": " + values[i]);
+            } else {
+                System.out.println(names[i] + ": ε");      //print epslion symbol
+            }
+        }
+    }
+}
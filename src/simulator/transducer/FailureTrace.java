@@ -0,0 +1,33 @@
+package simulator.transducer;
+
+/**
+ * Keeps the reason of the first failure of a run and ignores every other event.
+ * Lets callers tell an undefined output from an empty one.
+ */
+public class FailureTrace implements TraceListener {
+
+    // reason given to the first fail of the run, null while the run has not failed
+    private String reason;
+
+    @Override
+    public void fail(String reason) {
+        if (this.reason == null) {
+            this.reason = reason;
+        }
+    }
+
+    /**
+     * Get the reason the run failed
+     * @return reason of the first failure, null if the output is defined
+     */
+    public String getReason() {
+        return reason;
+    }
+
+    /**
+     * Forget the failure of the last run, so the trace can be given to the next one
+     */
+    public void clear() {
+        reason = null;
+    }
+}
@@ -0,0 +1,416 @@
+package simulator.transducer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Generator of JVM classes for compiled MSOT formulas
+ * Each formula becomes a subclass of CompiledFormula whose test method evaluates it without walking a tree.
+ * Class files are written by hand in version 49, which the JVM verifies without stack map frames.
+ * Variable slot i of a formula is held in local i+1 of test, the end of the loop of a quantifier on slot i in local frame+i+1.
+ */
+class FormulaCompiler {
+
+    private static final String SUPER = "simulator/transducer/CompiledFormula";
+
+    private static final int ICONST_0 = 0x03;
+    private static final int ICONST_1 = 0x04;
+    private static final int BIPUSH = 0x10;
+    private static final int SIPUSH = 0x11;
+    private static final int LDC_W = 0x13;
+    private static final int ILOAD = 0x15;
+    private static final int ISTORE = 0x36;
+    private static final int ALOAD_0 = 0x2a;
+    private static final int IXOR = 0x82;
+    private static final int IINC = 0x84;
+    private static final int IFEQ = 0x99;
+    private static final int IFNE = 0x9a;
+    private static final int IF_ICMPGE = 0xa2;
+    private static final int GOTO = 0xa7;
+    private static final int IRETURN = 0xac;
+    private static final int RETURN = 0xb1;
+    private static final int INVOKEVIRTUAL = 0xb6;
+    private static final int INVOKESPECIAL = 0xb7;
+
+    /**
+     * Class loader defining the generated classes of one MSOT
+     */
+    private static class Loader extends ClassLoader {
+        Loader() {
+            super(CompiledFormula.class.getClassLoader());
+        }
+
+        Class<?> define(String name, byte[] bytes) {
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+
+    private Loader loader = new Loader();
+    private int classCount = 0;
+
+    // constant pool and code of the class being generated
+    private ByteArrayOutputStream pool;
+    private int poolCount;
+    private HashMap<String, Integer> poolIndex;
+    private byte[] code;
+    private int length;
+    private int frame;
+    // label positions, -1 until placed, and branches to patch as (instruction position, label) pairs
+    private ArrayList<Integer> labels;
+    private ArrayList<int[]> branches;
+
+    /**
+     * Compile a formula into a new class
+     * @param formula compiled formula
+     * @return instance of the generated class, null if the formula is too large for a method
+     */
+    CompiledFormula compile(MSOTFormula formula) {
+        String name = "simulator/transducer/GeneratedFormula" + (classCount++);
+        pool = new ByteArrayOutputStream();
+        poolCount = 1;
+        poolIndex = new HashMap<String, Integer>();
+        code = new byte[256];
+        length = 0;
+        frame = formula.frame;
+        labels = new ArrayList<Integer>();
+        branches = new ArrayList<int[]>();
+        if (2*frame+1 > 255) {
+            return null;
+        }
+
+        generate(formula);
+        emit(IRETURN);
+        for (int[] branch : branches) {
+            int offset = labels.get(branch[1])-branch[0];
+            if (offset != (short) offset) {
+                return null;
+            }
+            code[branch[0]+1] = (byte) (offset >> 8);
+            code[branch[0]+2] = (byte) offset;
+        }
+        if (length > 65535) {
+            return null;
+        }
+
+        try {
+            byte[] bytes = writeClass(name);
+            return (CompiledFormula) loader.define(name.replace('/', '.'), bytes).getDeclaredConstructor().newInstance();
+        } catch (IOException | ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+
+    /**
+     * Generate code leaving the value of a formula on the stack as 0 or 1
+     * @param formula compiled formula
+     */
+    private void generate(MSOTFormula formula) {
+        switch (formula.op) {
+            case AND: {
+                int shortcut = newLabel();
+                int end = newLabel();
+                generate(formula.left);
+                branch(IFEQ, shortcut);
+                generate(formula.right);
+                branch(GOTO, end);
+                place(shortcut);
+                emit(ICONST_0);
+                place(end);
+                break;
+            }
+            case OR: {
+                int shortcut = newLabel();
+                int end = newLabel();
+                generate(formula.left);
+                branch(IFNE, shortcut);
+                generate(formula.right);
+                branch(GOTO, end);
+                place(shortcut);
+                emit(ICONST_1);
+                place(end);
+                break;
+            }
+            case NOT:
+                generate(formula.left);
+                emit(ICONST_1);
+                emit(IXOR);
+                break;
+            case TRUE:
+                emit(ICONST_1);
+                break;
+            case FALSE:
+                emit(ICONST_0);
+                break;
+            case OUT:
+                emit(ALOAD_0);
+                load(formula.var1);
+                pushInt(formula.symbol);
+                invoke("out", "(II)Z");
+                break;
+            case EDGE:
+            case NEXT:
+            case FPS:
+                emit(ALOAD_0);
+                load(formula.var1);
+                load(formula.var2);
+                pushInt(formula.symbol);
+                invoke(formula.op == MSOTFormula.Op.EDGE ? "edge" : formula.op == MSOTFormula.Op.NEXT ? "next" : "fps", "(III)Z");
+                break;
+            case LESS:
+                emit(ALOAD_0);
+                load(formula.var1);
+                load(formula.var2);
+                invoke("less", "(II)Z");
+                break;
+            case REF:
+                emit(ALOAD_0);
+                pushInt(formula.copy1);
+                pushInt(formula.copy2);
+                pushInt(formula.output);
+                load(formula.var1);
+                load(formula.var2);
+                invoke("ref", "(IIIII)Z");
+                break;
+            case EXISTS:
+            case FORALL: {
+                //exists looks for a vertex satisfying the body, forall for one violating it
+                boolean exists = formula.op == MSOTFormula.Op.EXISTS;
+                int loop = newLabel();
+                int found = newLabel();
+                int exhausted = newLabel();
+                int end = newLabel();
+                int var = formula.var1+1;
+                int last = frame+formula.var1+1;
+                if (formula.sameCopy) {
+                    emit(ALOAD_0);
+                    load(0);
+                    invoke("copyStart", "(I)I");
+                    emit(ISTORE, var);
+                    emit(ALOAD_0);
+                    load(0);
+                    invoke("copyEnd", "(I)I");
+                } else {
+                    emit(ICONST_0);
+                    emit(ISTORE, var);
+                    emit(ALOAD_0);
+                    invoke("vertexCount", "()I");
+                }
+                emit(ISTORE, last);
+                place(loop);
+                emit(ILOAD, var);
+                emit(ILOAD, last);
+                branch(IF_ICMPGE, exhausted);
+                generate(formula.left);
+                branch(exists ? IFNE : IFEQ, found);
+                emit(IINC, var);
+                emitByte(1);
+                branch(GOTO, loop);
+                place(found);
+                emit(exists ? ICONST_1 : ICONST_0);
+                branch(GOTO, end);
+                place(exhausted);
+                emit(exists ? ICONST_0 : ICONST_1);
+                place(end);
+                break;
+            }
+        }
+    }
+
+    private int newLabel() {
+        labels.add(-1);
+        return labels.size()-1;
+    }
+
+    private void place(int label) {
+        labels.set(label, length);
+    }
+
+    private void branch(int opcode, int label) {
+        branches.add(new int[] {length, label});
+        emit(opcode);
+        emitByte(0);
+        emitByte(0);
+    }
+
+    private void load(int slot) {
+        emit(ILOAD, slot+1);
+    }
+
+    private void pushInt(int value) {
+        if (value >= -128 && value <= 127) {
+            emit(BIPUSH, value);
+        } else if (value >= -32768 && value <= 32767) {
+            emit(SIPUSH);
+            emitByte(value >> 8);
+            emitByte(value);
+        } else {
+            emit(LDC_W);
+            emitShort(integerConstant(value));
+        }
+    }
+
+    private void invoke(String method, String descriptor) {
+        emit(INVOKEVIRTUAL);
+        emitShort(methodConstant(SUPER, method, descriptor));
+    }
+
+    private void emit(int opcode, int operand) {
+        emit(opcode);
+        emitByte(operand);
+    }
+
+    private void emit(int opcode) {
+        emitByte(opcode);
+    }
+
+    private void emitShort(int value) {
+        emitByte(value >> 8);
+        emitByte(value);
+    }
+
+    private void emitByte(int value) {
+        if (length == code.length) {
+            code = Arrays.copyOf(code, 2*length);
+        }
+        code[length++] = (byte) value;
+    }
+
+    /**
+     * Write the class file around the generated test method
+     * @param name internal name of the class
+     * @return class file
+     * @throws IOException never, the class file is written to memory
+     */
+    private byte[] writeClass(String name) throws IOException {
+        int thisClass = classConstant(name);
+        int superClass = classConstant(SUPER);
+        int init = methodConstant(SUPER, "<init>", "()V");
+        int codeName = utf8Constant("Code");
+        int initName = utf8Constant("<init>");
+        int initType = utf8Constant("()V");
+        int testName = utf8Constant("test");
+        int testType = utf8Constant("(II)Z");
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0xCAFEBABE);
+        out.writeShort(0);
+        out.writeShort(49);
+        out.writeShort(poolCount);
+        pool.writeTo(out);
+        // public final super
+        out.writeShort(0x0031);
+        out.writeShort(thisClass);
+        out.writeShort(superClass);
+        out.writeShort(0);
+        out.writeShort(0);
+        out.writeShort(2);
+
+        // public <init>() { super(); }
+        out.writeShort(0x0001);
+        out.writeShort(initName);
+        out.writeShort(initType);
+        out.writeShort(1);
+        out.writeShort(codeName);
+        out.writeInt(12+5);
+        out.writeShort(1);
+        out.writeShort(1);
+        out.writeInt(5);
+        out.writeByte(ALOAD_0);
+        out.writeByte(INVOKESPECIAL);
+        out.writeShort(init);
+        out.writeByte(RETURN);
+        out.writeShort(0);
+        out.writeShort(0);
+
+        // public boolean test(int x, int y)
+        out.writeShort(0x0001);
+        out.writeShort(testName);
+        out.writeShort(testType);
+        out.writeShort(1);
+        out.writeShort(codeName);
+        out.writeInt(12+length);
+        out.writeShort(8);
+        out.writeShort(2*frame+1);
+        out.writeInt(length);
+        out.write(code, 0, length);
+        out.writeShort(0);
+        out.writeShort(0);
+
+        out.writeShort(0);
+        return bytes.toByteArray();
+    }
+
+    private int utf8Constant(String value) {
+        Integer index = poolIndex.get("U" + value);
+        if (index == null) {
+            try {
+                DataOutputStream out = new DataOutputStream(pool);
+                out.writeByte(1);
+                out.writeUTF(value);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            index = poolCount++;
+            poolIndex.put("U" + value, index);
+        }
+        return index;
+    }
+
+    private int integerConstant(int value) {
+        Integer index = poolIndex.get("I" + value);
+        if (index == null) {
+            pool.write(3);
+            writeInt(value);
+            index = poolCount++;
+            poolIndex.put("I" + value, index);
+        }
+        return index;
+    }
+
+    private int classConstant(String name) {
+        Integer index = poolIndex.get("C" + name);
+        if (index == null) {
+            int utf8 = utf8Constant(name);
+            pool.write(7);
+            writeShort(utf8);
+            index = poolCount++;
+            poolIndex.put("C" + name, index);
+        }
+        return index;
+    }
+
+    private int methodConstant(String owner, String method, String descriptor) {
+        String key = "M" + owner + "." + method + descriptor;
+        Integer index = poolIndex.get(key);
+        if (index == null) {
+            int ownerIndex = classConstant(owner);
+            int methodName = utf8Constant(method);
+            int methodType = utf8Constant(descriptor);
+            pool.write(12);
+            writeShort(methodName);
+            writeShort(methodType);
+            int nameAndType = poolCount++;
+            pool.write(10);
+            writeShort(ownerIndex);
+            writeShort(nameAndType);
+            index = poolCount++;
+            poolIndex.put(key, index);
+        }
+        return index;
+    }
+
+    private void writeShort(int value) {
+        pool.write(value >> 8);
+        pool.write(value);
+    }
+
+    private void writeInt(int value) {
+        writeShort(value >> 16);
+        writeShort(value);
+    }
+}
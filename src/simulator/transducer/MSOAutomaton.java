@@ -0,0 +1,437 @@
+package simulator.transducer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+
+/**
+ * Deterministic automaton recognising an MSO formula over input positions
+ * The automaton reads the input followed by an end marker, one position per symbol.
+ * A symbol is a letter, the input symbol number or the end marker, together with one bit per variable track
+ * telling whether the variable is at that position.
+ * Automata are built from formulas whose variables range over positions only, see MSOT.specialise,
+ * by products for and/or, complement for not and subset construction for quantifiers.
+ */
+class MSOAutomaton {
+
+    // largest number of states allowed while compiling, larger automata are given up on
+    static final int STATE_LIMIT = 1 << 14;
+
+    final int letters;
+    final int tracks;
+    final int symbols;
+    int stateCount;
+    // transition function indexed by (state * symbols + (letter << tracks | bits)), state 0 is initial
+    int[] next;
+    boolean[] accept;
+
+    private MSOAutomaton(int letters, int tracks, int stateCount) {
+        this.letters = letters;
+        this.tracks = tracks;
+        this.symbols = letters << tracks;
+        this.stateCount = stateCount;
+        this.next = new int[stateCount*symbols];
+        this.accept = new boolean[stateCount];
+    }
+
+    /**
+     * Get the state after reading a symbol
+     * @param state current state
+     * @param letter letter
+     * @param bits variable tracks set at this position
+     * @return next state
+     */
+    int step(int state, int letter, int bits) {
+        return next[state*symbols+(letter << tracks | bits)];
+    }
+
+    /**
+     * Compile a formula over position variables
+     * @param formula formula whose variables are track numbers
+     * @param letters number of letters, the last being the end marker
+     * @param tracks number of variable tracks
+     * @return minimal automaton
+     * @throws IllegalStateException if an automaton grows beyond the state limit
+     */
+    static MSOAutomaton compile(MSOTFormula formula, int letters, int tracks) {
+        switch (formula.op) {
+            case AND:
+            case OR:
+                return product(compile(formula.left, letters, tracks), compile(formula.right, letters, tracks), formula.op == MSOTFormula.Op.AND).minimise();
+            case NOT:
+                return compile(formula.left, letters, tracks).complement();
+            case TRUE:
+            case FALSE: {
+                MSOAutomaton automaton = new MSOAutomaton(letters, tracks, 1);
+                automaton.accept[0] = formula.op == MSOTFormula.Op.TRUE;
+                return automaton;
+            }
+            case EXISTS:
+                return compile(formula.left, letters, tracks).exists(formula.var1);
+            case FORALL:
+                return compile(formula.left, letters, tracks).complement().exists(formula.var1).complement();
+            default:
+                return atom(formula, letters, tracks);
+        }
+    }
+
+    /**
+     * Build the automaton of an atomic formula
+     * Each atom is a small state machine on the positions of its variables, see the comments of each case.
+     * @param formula atomic formula
+     * @param letters number of letters
+     * @param tracks number of variable tracks
+     * @return automaton
+     */
+    private static MSOAutomaton atom(MSOTFormula formula, int letters, int tracks) {
+        int end = letters-1;
+        int v = 1 << formula.var1;
+        int w = 1 << formula.var2;
+        // shared states: 0 initial, 1 accepting sink, 2 rejecting sink, others per atom
+        final int start = 0;
+        final int accepted = 1;
+        final int rejected = 2;
+        int count = formula.op == MSOTFormula.Op.OUT ? 3 : formula.op == MSOTFormula.Op.NEXT ? 6 : 5;
+        MSOAutomaton automaton = new MSOAutomaton(letters, tracks, count);
+        automaton.accept[accepted] = true;
+        for (int letter = 0; letter < letters; letter++) {
+            for (int bits = 0; bits < 1 << tracks; bits++) {
+                boolean atV = (bits & v) != 0;
+                boolean atW = (bits & w) != 0;
+                boolean moved = formula.op == MSOTFormula.Op.OUT ? atV : atV || atW;
+                automaton.set(accepted, letter, bits, moved ? rejected : accepted);
+                automaton.set(rejected, letter, bits, rejected);
+                switch (formula.op) {
+                    case OUT:
+                        //the letter at v is the symbol
+                        automaton.set(start, letter, bits, !atV ? start : letter == formula.symbol ? accepted : rejected);
+                        break;
+                    case LESS: {
+                        //state 3: v seen, w still to come
+                        int seenV = 3;
+                        automaton.set(start, letter, bits, atW || v == w ? rejected : atV ? seenV : start);
+                        automaton.set(seenV, letter, bits, atV ? rejected : atW ? accepted : seenV);
+                        automaton.set(4, letter, bits, rejected);
+                        break;
+                    }
+                    case EDGE: {
+                        //state 3: v seen with the symbol, w must be the next position
+                        int seenV = 3;
+                        automaton.set(start, letter, bits, atW || v == w ? rejected : atV ? (letter == formula.symbol ? seenV : rejected) : start);
+                        automaton.set(seenV, letter, bits, atW && !atV ? accepted : rejected);
+                        automaton.set(4, letter, bits, rejected);
+                        break;
+                    }
+                    case FPS: {
+                        //w is the first position of the block of symbols ending right before v
+                        //state 0 also stands for a previous letter other than the symbol, state 4 for the symbol
+                        //state 3: w seen, every letter from w on is the symbol until v
+                        int inBlock = 3;
+                        int afterSymbol = 4;
+                        int plain = letter == formula.symbol ? afterSymbol : start;
+                        automaton.set(start, letter, bits, atV && atW ? accepted : atV ? rejected : atW ? (letter == formula.symbol ? inBlock : rejected) : plain);
+                        automaton.set(afterSymbol, letter, bits, atV || atW ? rejected : plain);
+                        automaton.set(inBlock, letter, bits, atW ? rejected : atV ? accepted : letter == formula.symbol ? inBlock : rejected);
+                        break;
+                    }
+                    case NEXT: {
+                        //w is the first position after v with the symbol or the end marker, or the first position if v is the end marker
+                        //state 3: nothing seen after the first position, state 4: w seen at the first position
+                        //state 5: v seen before the end marker, looking for w
+                        int later = 3;
+                        int firstW = 4;
+                        int seeking = 5;
+                        int fromV = letter == end ? rejected : seeking;
+                        automaton.set(start, letter, bits, atV && atW ? (letter == end ? accepted : rejected) : atV ? fromV : atW ? firstW : later);
+                        automaton.set(later, letter, bits, atV && atW ? rejected : atV ? fromV : atW ? rejected : later);
+                        automaton.set(firstW, letter, bits, atW ? rejected : atV ? (letter == end ? accepted : rejected) : firstW);
+                        automaton.set(seeking, letter, bits, atV ? rejected : atW ? (letter == formula.symbol || letter == end ? accepted : rejected) : letter == formula.symbol || letter == end ? rejected : seeking);
+                        break;
+                    }
+                    default:
+                        throw new IllegalArgumentException("Unexpected formula " + formula.op + ".");
+                }
+            }
+        }
+        return automaton.minimise();
+    }
+
+    private void set(int state, int letter, int bits, int target) {
+        next[state*symbols+(letter << tracks | bits)] = target;
+    }
+
+    /**
+     * Build the product of two automata
+     * @param a first automaton
+     * @param b second automaton
+     * @param and whether to accept the intersection, the union otherwise
+     * @return product automaton of the reachable pairs
+     */
+    private static MSOAutomaton product(MSOAutomaton a, MSOAutomaton b, boolean and) {
+        HashMap<Long, Integer> index = new HashMap<Long, Integer>();
+        ArrayList<long[]> pairs = new ArrayList<long[]>();
+        ArrayList<int[]> rows = new ArrayList<int[]>();
+        index.put(0L, 0);
+        pairs.add(new long[] {0, 0});
+        for (int i = 0; i < pairs.size(); i++) {
+            int p = (int) pairs.get(i)[0];
+            int q = (int) pairs.get(i)[1];
+            int[] row = new int[a.symbols];
+            for (int s = 0; s < a.symbols; s++) {
+                long key = (long) a.next[p*a.symbols+s] * b.stateCount + b.next[q*b.symbols+s];
+                Integer target = index.get(key);
+                if (target == null) {
+                    target = pairs.size();
+                    if (target >= STATE_LIMIT) {
+                        throw new IllegalStateException("Automaton too large.");
+                    }
+                    index.put(key, target);
+                    pairs.add(new long[] {a.next[p*a.symbols+s], b.next[q*b.symbols+s]});
+                }
+                row[s] = target;
+            }
+            rows.add(row);
+        }
+        MSOAutomaton result = new MSOAutomaton(a.letters, a.tracks, pairs.size());
+        for (int i = 0; i < pairs.size(); i++) {
+            System.arraycopy(rows.get(i), 0, result.next, i*result.symbols, result.symbols);
+            boolean acceptA = a.accept[(int) pairs.get(i)[0]];
+            boolean acceptB = b.accept[(int) pairs.get(i)[1]];
+            result.accept[i] = and ? acceptA && acceptB : acceptA || acceptB;
+        }
+        return result;
+    }
+
+    /**
+     * Complement the automaton, which is complete
+     * @return automaton accepting the other words
+     */
+    private MSOAutomaton complement() {
+        MSOAutomaton result = new MSOAutomaton(letters, tracks, stateCount);
+        result.next = next;
+        for (int i = 0; i < stateCount; i++) {
+            result.accept[i] = !accept[i];
+        }
+        return result;
+    }
+
+    /**
+     * Quantify a track existentially
+     * Words are first restricted to those with the track set at exactly one position,
+     * then the track is projected away by subset construction.
+     * @param track variable track
+     * @return minimal automaton ignoring the track
+     */
+    private MSOAutomaton exists(int track) {
+        int bit = 1 << track;
+        // singleton: 0 not seen yet, 1 seen once, 2 seen twice
+        MSOAutomaton singleton = new MSOAutomaton(letters, tracks, 3);
+        singleton.accept[1] = true;
+        for (int s = 0; s < symbols; s++) {
+            boolean at = (s & bit) != 0;
+            singleton.next[s] = at ? 1 : 0;
+            singleton.next[symbols+s] = at ? 2 : 1;
+            singleton.next[2*symbols+s] = 2;
+        }
+        MSOAutomaton body = product(this, singleton, true);
+
+        HashMap<BitSet, Integer> index = new HashMap<BitSet, Integer>();
+        ArrayList<BitSet> subsets = new ArrayList<BitSet>();
+        ArrayList<int[]> rows = new ArrayList<int[]>();
+        BitSet initial = new BitSet();
+        initial.set(0);
+        index.put(initial, 0);
+        subsets.add(initial);
+        for (int i = 0; i < subsets.size(); i++) {
+            BitSet subset = subsets.get(i);
+            int[] row = new int[symbols];
+            for (int s = 0; s < symbols; s++) {
+                if ((s & bit) != 0) {
+                    row[s] = row[s & ~bit];
+                    continue;
+                }
+                BitSet target = new BitSet();
+                for (int q = subset.nextSetBit(0); q >= 0; q = subset.nextSetBit(q+1)) {
+                    target.set(body.next[q*symbols+s]);
+                    target.set(body.next[q*symbols+(s | bit)]);
+                }
+                Integer targetIndex = index.get(target);
+                if (targetIndex == null) {
+                    targetIndex = subsets.size();
+                    if (targetIndex >= STATE_LIMIT) {
+                        throw new IllegalStateException("Automaton too large.");
+                    }
+                    index.put(target, targetIndex);
+                    subsets.add(target);
+                }
+                row[s] = targetIndex;
+            }
+            rows.add(row);
+        }
+        MSOAutomaton result = new MSOAutomaton(letters, tracks, subsets.size());
+        for (int i = 0; i < subsets.size(); i++) {
+            System.arraycopy(rows.get(i), 0, result.next, i*symbols, symbols);
+            BitSet subset = subsets.get(i);
+            for (int q = subset.nextSetBit(0); q >= 0; q = subset.nextSetBit(q+1)) {
+                result.accept[i] |= body.accept[q];
+            }
+        }
+        return result.minimise();
+    }
+
+    /**
+     * Merge equivalent states by partition refinement
+     * @return minimal automaton, the initial state staying 0
+     */
+    private MSOAutomaton minimise() {
+        int[] block = new int[stateCount];
+        int blocks = 0;
+        for (int i = 0; i < stateCount; i++) {
+            block[i] = accept[i] ? 1 : 0;
+        }
+        int[] signature = new int[symbols+1];
+        while (true) {
+            HashMap<Signature, Integer> index = new HashMap<Signature, Integer>();
+            int[] refined = new int[stateCount];
+            for (int i = 0; i < stateCount; i++) {
+                signature[0] = block[i];
+                for (int s = 0; s < symbols; s++) {
+                    signature[s+1] = block[next[i*symbols+s]];
+                }
+                Signature key = new Signature(signature.clone());
+                Integer number = index.get(key);
+                if (number == null) {
+                    number = index.size();
+                    index.put(key, number);
+                }
+                refined[i] = number;
+            }
+            boolean stable = index.size() == blocks;
+            blocks = index.size();
+            block = refined;
+            if (stable) {
+                break;
+            }
+        }
+        if (blocks == stateCount && block[0] == 0) {
+            return this;
+        }
+        // renumber so that the block of the initial state comes first
+        int[] number = new int[blocks];
+        Arrays.fill(number, -1);
+        number[block[0]] = 0;
+        int count = 1;
+        for (int i = 0; i < stateCount; i++) {
+            if (number[block[i]] < 0) {
+                number[block[i]] = count++;
+            }
+        }
+        MSOAutomaton result = new MSOAutomaton(letters, tracks, blocks);
+        for (int i = 0; i < stateCount; i++) {
+            int state = number[block[i]];
+            result.accept[state] = accept[i];
+            for (int s = 0; s < symbols; s++) {
+                result.next[state*symbols+s] = number[block[next[i*symbols+s]]];
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Find the states from which some word is accepted
+     * @return live states
+     */
+    boolean[] live() {
+        boolean[] live = accept.clone();
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int i = 0; i < stateCount; i++) {
+                if (live[i]) {
+                    continue;
+                }
+                for (int s = 0; s < symbols; s++) {
+                    if (live[next[i*symbols+s]]) {
+                        live[i] = true;
+                        changed = true;
+                        break;
+                    }
+                }
+            }
+        }
+        return live;
+    }
+
+    /**
+     * Run over a word with no track set
+     * @param word letters of the input followed by the end marker
+     * @return state before each position, and after the last one
+     */
+    int[] forward(int[] word) {
+        int[] states = new int[word.length+1];
+        for (int i = 0; i < word.length; i++) {
+            states[i+1] = step(states[i], word[i], 0);
+        }
+        return states;
+    }
+
+    /**
+     * Find for each position the states from which the rest of a word with no track set is accepted
+     * @param word letters of the input followed by the end marker
+     * @return bit sets of states, words(stateCount) longs per position from 0 to the length of the word
+     */
+    long[] backward(int[] word) {
+        int words = (stateCount+63) >>> 6;
+        long[] sets = new long[(word.length+1)*words];
+        for (int q = 0; q < stateCount; q++) {
+            if (accept[q]) {
+                sets[word.length*words+(q >>> 6)] |= 1L << q;
+            }
+        }
+        for (int i = word.length-1; i >= 0; i--) {
+            for (int q = 0; q < stateCount; q++) {
+                int target = step(q, word[i], 0);
+                if ((sets[(i+1)*words+(target >>> 6)] & 1L << target) != 0) {
+                    sets[i*words+(q >>> 6)] |= 1L << q;
+                }
+            }
+        }
+        return sets;
+    }
+
+    /**
+     * Check whether a state is in the set of a position computed by backward
+     * @param sets result of backward
+     * @param position position
+     * @param state state
+     * @return true if the rest of the word from the position is accepted from the state
+     */
+    boolean accepts(long[] sets, int position, int state) {
+        int words = (stateCount+63) >>> 6;
+        return (sets[position*words+(state >>> 6)] & 1L << state) != 0;
+    }
+
+    /**
+     * Key of a state in partition refinement, its block and the blocks of its successors
+     */
+    private static class Signature {
+        private int[] blocks;
+        private int hash;
+
+        Signature(int[] blocks) {
+            this.blocks = blocks;
+            this.hash = Arrays.hashCode(blocks);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Signature && Arrays.equals(blocks, ((Signature) other).blocks);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
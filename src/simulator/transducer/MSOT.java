@@ -1,8 +1,11 @@
 package simulator.transducer;
 import simulator.util.Node;
 
-// import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * Deterministic MSO transducers (MSOT)
@@ -13,156 +16,353 @@ import java.util.HashMap;
  *        F{c}(x) are node formulas with one free node variable x
  *        F{c1,c2}{γ}(x,y) are edge formulas with two free node variables x,y
  */
-public class MSOT{
+public class MSOT implements Model{
 
-    private HashMap<String, Integer> inputAlphabet;
-    private HashMap<String, Integer> outputAlphabet;
-    private HashMap<String, Integer> copySet;
-    private Node[] nodeFormula;
-    private Node[][][] edgeFormula;
-    private String[][] inputEdgeSet;
-    private Boolean[][] outputNodeSet;
+    /**
+     * Engines evaluating the formulas
+     * INTERPRETER walks the compiled formula trees, BYTECODE generates a JVM class per formula
+     * and AUTOMATON compiles every formula into a finite automaton read in linear passes over the input.
+     * BYTECODE and AUTOMATON fall back to INTERPRETER if a formula cannot be compiled.
+     */
+    public enum Engine {
+        INTERPRETER, BYTECODE, AUTOMATON
+    }
+
+    // The compiled formulas below are read by MSOTContext, which carries the state of the runs of one thread.
+    // Nothing here is written by a run, so one MSOT can be run by several threads at once.
+
+    HashMap<String, Integer> inputAlphabet;
+    HashMap<String, Integer> outputAlphabet;
+    HashMap<String, Integer> copySet;
+    // Node and edge formulas compiled from their parse trees, null where a formula is not given.
+    MSOTFormula[] nodeFormula;
+    MSOTFormula[][][] edgeFormula;
+    // Input symbols of next and fps atoms, whose position tables are built in every run.
+    boolean[] nextSymbol;
+    boolean[] fpsSymbol;
+    // Number of position tables of quantifier filters, see MSOTContext.Evaluator.quantify.
+    int quantifierCount = 0;
+
+    volatile Engine engine = Engine.INTERPRETER;
+    // Threads evaluating node and edge formulas, null if they are evaluated by the calling thread.
+    volatile ForkJoinPool pool;
+    // Formulas generated as JVM classes, null until the BYTECODE engine is first used.
+    // Every context binds copies of them to its runs.
+    CompiledFormula[] nodeTest;
+    CompiledFormula[][][] edgeTest;
+    private boolean generationFailed = false;
+    // Automata of the formulas over input positions, null until the AUTOMATON engine is first used.
+    MSOAutomaton[] nodeAutomaton;
+    MSOAutomaton[][][] edgeAutomaton;
+    private boolean automataFailed = false;
+    // number of variable tracks used by the formula being specialised
+    private int trackCount;
+
+    // copy names and output symbols indexed by their numbers, reported to trace listeners
+    String[] copyName;
+    String[] outputName;
 
-    public MSOT(HashMap<String, Integer> inputAlphabet, HashMap<String, Integer> outputAlphabet, HashMap<String, Integer> copySet, Node[] nodeFormula, Node[][][] edgeFormula){
+    // context of the runs of each thread
+    private ThreadLocal<MSOTContext> context = new ThreadLocal<MSOTContext>() {
+        @Override
+        protected MSOTContext initialValue() {
+            return new MSOTContext(MSOT.this);
+        }
+    };
+
+    public MSOT(HashMap<String, Integer> inputAlphabet, HashMap<String, Integer> outputAlphabet, HashMap<String, Integer> copySet, Node[] nodeFormula, Node[][][] edgeFormula) throws Exception {
         this.inputAlphabet = inputAlphabet;
+        this.nextSymbol = new boolean[inputAlphabet.size()];
+        this.fpsSymbol = new boolean[inputAlphabet.size()];
         this.outputAlphabet = outputAlphabet;
         this.copySet = copySet;
-        this.nodeFormula = nodeFormula;
-        this.edgeFormula = edgeFormula;
+        this.nodeFormula = new MSOTFormula[nodeFormula.length];
+        for (int i = 0; i < nodeFormula.length; i++) {
+            if (nodeFormula[i] != null) {
+                this.nodeFormula[i] = compileFormula(nodeFormula[i], true);
+            }
+        }
+        this.edgeFormula = new MSOTFormula[edgeFormula.length][][];
+        for (int i = 0; i < edgeFormula.length; i++) {
+            this.edgeFormula[i] = new MSOTFormula[edgeFormula[i].length][];
+            for (int j = 0; j < edgeFormula[i].length; j++) {
+                this.edgeFormula[i][j] = new MSOTFormula[edgeFormula[i][j].length];
+                for (int k = 0; k < edgeFormula[i][j].length; k++) {
+                    if (edgeFormula[i][j][k] != null) {
+                        this.edgeFormula[i][j][k] = compileFormula(edgeFormula[i][j][k], false);
+                    }
+                }
+            }
+        }
+        this.copyName = new String[copySet.size()];
+        for (String copy : copySet.keySet()) {
+            copyName[copySet.get(copy)] = copy;
+        }
+        this.outputName = new String[outputAlphabet.size()];
+        for (String symbol : outputAlphabet.keySet()) {
+            outputName[outputAlphabet.get(symbol)] = symbol;
+        }
     }
 
     /**
-     * Run MSOT over input string
-     * @param inputString input string
-     * @return Output string
+     * Choose the engine evaluating the formulas in later runs
+     * @param engine evaluation engine
      */
-    public String run(String inputString) {
-        //initialise graph represetation
-        char [] stringArray = inputString.toCharArray();
-        inputEdgeSet = new String[copySet.size()*(inputString.length()+1)][copySet.size()*(inputString.length()+1)];
-        outputNodeSet = new Boolean[copySet.size()][inputString.length()+1];
-        String[][] outputEdgeSet = new String[copySet.size()*(inputString.length()+1)][copySet.size()*(inputString.length()+1)];
-        //construct string representation and its copy
-        for (int i = 0; i < stringArray.length; i++) {
-            String symbol = String.valueOf(stringArray[i]);
-            for (int j = 0; j < copySet.size(); j++) {
-                int curr = i+j*(inputString.length()+1);
-                inputEdgeSet[curr][curr+1] = symbol;
-            }
+    public void setEngine(Engine engine) {
+        this.engine = engine;
+    }
+
+    /**
+     * Choose the number of threads evaluating node and edge formulas in later runs
+     * Positions of the nodes and sources of the edges are split between the threads of a fork-join pool,
+     * 1 evaluates them in the calling thread.
+     * The AUTOMATON engine works in the calling thread, its passes are linear already.
+     * @param parallelism number of threads
+     */
+    public void setParallelism(int parallelism) {
+        if (pool != null) {
+            pool.shutdown();
         }
+        pool = parallelism > 1 ? new ForkJoinPool(parallelism) : null;
+    }
 
-        //use node formulas to construct new gragh
+    /**
+     * Generate a JVM class for every formula, once
+     * @return true if all formulas have been generated
+     */
+    synchronized boolean generateTests() {
+        if (nodeTest != null || generationFailed) {
+            return nodeTest != null;
+        }
+        FormulaCompiler compiler = new FormulaCompiler();
+        CompiledFormula[] nodes = new CompiledFormula[nodeFormula.length];
+        CompiledFormula[][][] edges = new CompiledFormula[edgeFormula.length][edgeFormula.length][outputName.length];
         for (int i = 0; i < nodeFormula.length; i++) {
-            if (nodeFormula[i] == null) {
-                for (int j = 0; j < inputString.length()+1; j++) {
-                    outputNodeSet[i][j] = false;
-                }
-            } else {
-                Node root = nodeFormula[i];
-                for (int j = 0; j < inputString.length()+1; j++) {
-                    if (evaluateNodeFormula(root,i*(inputString.length()+1)+j)) {
-                        outputNodeSet[i][j] = true;
-                    } else {
-                        outputNodeSet[i][j] = false;
-                    }
-                }
+            if (nodeFormula[i] != null && (nodes[i] = compiler.compile(nodeFormula[i])) == null) {
+                generationFailed = true;
+                return false;
             }
-            
-        } 
-
-        //use edge formulas to construct new gragh
+        }
         for (int i = 0; i < edgeFormula.length; i++) {
             for (int j = 0; j < edgeFormula.length; j++) {
-                for (String outputSymbol : outputAlphabet.keySet()) {
-                    int outputNum = outputAlphabet.get(outputSymbol);
-                    if (edgeFormula[i][j][outputNum] == null) {
-                        continue;
-                    } else {
-                        Node root = edgeFormula[i][j][outputNum];
-                        for (int k = 0; k < inputString.length()+1; k++) {
-                            if (outputNodeSet[i][k] == true) {
-                                for (int l = 0; l < inputString.length()+1; l++) {
-                                    if (outputNodeSet[j][l] == true) {
-                                        if (evaluateEdgeFormula(root,i*(inputString.length()+1)+k,j*(inputString.length()+1)+l)) {
-                                            outputEdgeSet[i*(inputString.length()+1)+k][j*(inputString.length()+1)+l] = outputSymbol;
-                                        }
-                                    }
-                                }
-                            }
-                        }
+                for (int k = 0; k < outputName.length; k++) {
+                    if (edgeFormula[i][j][k] != null && (edges[i][j][k] = compiler.compile(edgeFormula[i][j][k])) == null) {
+                        generationFailed = true;
+                        return false;
                     }
                 }
             }
         }
+        nodeTest = nodes;
+        edgeTest = edges;
+        return true;
+    }
 
-        // loops to print outputEdgeSet (to debug)
-        // System.out.println("Output edge matrix:");
-        // for (int i = 0; i < outputEdgeSet.length; i++) {
-        //     System.out.println(Arrays.toString(outputEdgeSet[i]));
-        // }
-
-        //find string representation in the new gragh
-        String output = "";
-        String prevSymbol;
-        String nextSymbol;
-        int prevVertex;
-        int nextVertex;
-
-        loop:for (int i = 0; i < copySet.size(); i++) {
-            for (int j = 0; j < inputString.length()+1; j++) {
-                if (outputNodeSet[i][j] == true) {
-                    outputNodeSet[i][j] = false;
-                    nextVertex = i*(inputString.length()+1)+j;
-                    prevVertex = i*(inputString.length()+1)+j;
-                    do {
-                        nextSymbol = null;
-                        for (int k = 0; k < outputEdgeSet.length; k++) {
-                            if (outputEdgeSet[nextVertex][k] != null) {
-                                nextSymbol = outputEdgeSet[nextVertex][k];
-                                nextVertex = k;
-                                outputNodeSet[k/(inputString.length()+1)][k%(inputString.length()+1)] = false;
-                                output = output.concat(nextSymbol);
-                                break;
-                            }
-                        }
-                    } while (nextSymbol != null);
-
-                    do {
-                        prevSymbol = null;
-                        for (int k = 0; k < outputEdgeSet.length; k++) {
-                            if (outputEdgeSet[k][prevVertex] != null) {
-                                prevSymbol = outputEdgeSet[k][prevVertex];
-                                prevVertex = k;
-                                outputNodeSet[k/(inputString.length()+1)][k%(inputString.length()+1)] = false;
-                                output = prevSymbol.concat(output);
-                                break;
-                            }
+    /**
+     * Build the automaton of every formula, once
+     * Formulas are specialised to positions first, see specialise.
+     * @return true if all automata have been built
+     */
+    synchronized boolean buildAutomata() {
+        if (nodeAutomaton != null || automataFailed) {
+            return nodeAutomaton != null;
+        }
+        int letters = inputAlphabet.size()+1;
+        int copies = copySet.size();
+        MSOAutomaton[] nodes = new MSOAutomaton[copies];
+        MSOAutomaton[][][] edges = new MSOAutomaton[copies][copies][outputName.length];
+        try {
+            for (int i = 0; i < copies; i++) {
+                if (nodeFormula[i] != null) {
+                    int[] copy = new int[nodeFormula[i].frame];
+                    Arrays.fill(copy, i);
+                    trackCount = 1;
+                    MSOTFormula formula = specialise(nodeFormula[i], new int[nodeFormula[i].frame], copy, 1, new ArrayList<Integer>());
+                    nodes[i] = compileAutomaton(formula, letters);
+                }
+            }
+            for (int i = 0; i < copies; i++) {
+                for (int j = 0; j < copies; j++) {
+                    for (int k = 0; k < outputName.length; k++) {
+                        MSOTFormula root = edgeFormula[i][j][k];
+                        if (root != null) {
+                            int[] track = new int[root.frame];
+                            int[] copy = new int[root.frame];
+                            track[1] = 1;
+                            copy[0] = i;
+                            copy[1] = j;
+                            trackCount = 2;
+                            MSOTFormula formula = specialise(root, track, copy, 2, new ArrayList<Integer>());
+                            edges[i][j][k] = compileAutomaton(formula, letters);
                         }
-                    } while (prevSymbol != null);
-
-                    break loop;
+                    }
                 }
             }
+        } catch (Exception e) {
+            // cyclic references, too many variables or automata over the state limit
+            automataFailed = true;
+            return false;
         }
+        nodeAutomaton = nodes;
+        edgeAutomaton = edges;
+        return true;
+    }
 
-        //check whether string representation is vaild
-        Boolean vaild = true;
-        for (int i = 0; i < copySet.size(); i++) {
-            for (int j = 0; j < inputString.length()+1; j++) {
-                if (outputNodeSet[i][j] == true) {
-                    vaild = false;
-                }
+    /**
+     * Compile a specialised formula into an automaton with as many tracks as it uses
+     * @param formula specialised formula
+     * @param letters number of letters
+     * @return automaton
+     * @throws Exception if the formula needs too many tracks
+     */
+    private MSOAutomaton compileAutomaton(MSOTFormula formula, int letters) throws Exception {
+        if (trackCount > 8) {
+            throw new Exception("Too many variables for an automaton.");
+        }
+        return MSOAutomaton.compile(formula, letters, trackCount);
+    }
+
+    /**
+     * Copy an atom with its variables replaced by their tracks
+     * @param formula atom over variable slots
+     * @param track track of each variable slot
+     * @return atom whose variables are tracks
+     */
+    private static MSOTFormula copyAtom(MSOTFormula formula, int[] track) {
+        MSOTFormula result = new MSOTFormula(formula.op);
+        result.symbol = formula.symbol;
+        result.var1 = track[formula.var1];
+        result.var2 = track[formula.var2];
+        return result;
+    }
+
+    /**
+     * Specialise a formula to a formula over input positions
+     * Every variable gets a track and a fixed copy. Quantifiers over all vertices become
+     * a disjunction, or a conjunction for forall, of one quantifier over positions per copy.
+     * Atoms comparing copies are decided here and references to edge formulas are replaced
+     * by the referred formula and the node formulas of both vertices.
+     * @param formula compiled formula
+     * @param track track of each variable slot
+     * @param copy copy of each variable slot
+     * @param free first track not in use
+     * @param inlining references being replaced, to detect cycles
+     * @return formula whose variables are tracks
+     * @throws Exception if edge formulas refer to each other in a cycle
+     */
+    private MSOTFormula specialise(MSOTFormula formula, int[] track, int[] copy, int free, ArrayList<Integer> inlining) throws Exception {
+        MSOTFormula result;
+        switch (formula.op) {
+            case AND:
+            case OR:
+                return new MSOTFormula(formula.op, specialise(formula.left, track, copy, free, inlining), specialise(formula.right, track, copy, free, inlining));
+            case NOT:
+                return new MSOTFormula(formula.op, specialise(formula.left, track, copy, free, inlining), null);
+            case TRUE:
+            case FALSE:
+                return new MSOTFormula(formula.op);
+            case EDGE:
+                if (copy[formula.var1] != copy[formula.var2]) {
+                    return new MSOTFormula(MSOTFormula.Op.FALSE);
+                }
+                return copyAtom(formula, track);
+            case OUT:
+            case NEXT:
+            case FPS:
+            case LESS:
+                return copyAtom(formula, track);
+            case REF: {
+                int copy1 = formula.copy1;
+                int copy2 = formula.copy2;
+                MSOTFormula target = edgeFormula[copy1][copy2][formula.output];
+                if (copy[formula.var1] != copy1 || copy[formula.var2] != copy2 || target == null || nodeFormula[copy1] == null || nodeFormula[copy2] == null) {
+                    return new MSOTFormula(MSOTFormula.Op.FALSE);
+                }
+                int key = (copy1*copySet.size()+copy2)*outputName.length+formula.output;
+                if (inlining.contains(key)) {
+                    throw new Exception("Edge formulas refer to each other in a cycle.");
+                }
+                inlining.add(key);
+                int[] nodeTrack = new int[nodeFormula[copy1].frame];
+                int[] nodeCopy = new int[nodeFormula[copy1].frame];
+                for (int i = 2; i < nodeTrack.length; i++) {
+                    nodeTrack[i] = free+i-2;
+                }
+                nodeTrack[0] = track[formula.var1];
+                Arrays.fill(nodeCopy, copy1);
+                MSOTFormula node1 = specialise(nodeFormula[copy1], nodeTrack, nodeCopy, free, inlining);
+                nodeTrack = new int[nodeFormula[copy2].frame];
+                nodeCopy = new int[nodeFormula[copy2].frame];
+                nodeTrack[0] = track[formula.var2];
+                Arrays.fill(nodeCopy, copy2);
+                MSOTFormula node2 = specialise(nodeFormula[copy2], nodeTrack, nodeCopy, free, inlining);
+                int[] edgeTrack = new int[target.frame];
+                int[] edgeCopy = new int[target.frame];
+                edgeTrack[0] = track[formula.var1];
+                edgeTrack[1] = track[formula.var2];
+                edgeCopy[0] = copy1;
+                edgeCopy[1] = copy2;
+                MSOTFormula edge = specialise(target, edgeTrack, edgeCopy, free, inlining);
+                inlining.remove(inlining.size()-1);
+                return new MSOTFormula(MSOTFormula.Op.AND, new MSOTFormula(MSOTFormula.Op.AND, node1, node2), edge);
+            }
+            case EXISTS:
+            case FORALL: {
+                track[formula.var1] = free;
+                trackCount = Math.max(trackCount, free+1);
+                if (formula.sameCopy) {
+                    copy[formula.var1] = copy[0];
+                    result = new MSOTFormula(formula.op, specialise(formula.left, track, copy, free+1, inlining), null);
+                    result.var1 = free;
+                    return result;
+                }
+                result = null;
+                for (int c = 0; c < copySet.size(); c++) {
+                    copy[formula.var1] = c;
+                    track[formula.var1] = free;
+                    MSOTFormula part = new MSOTFormula(formula.op, specialise(formula.left, track, copy, free+1, inlining), null);
+                    part.var1 = free;
+                    result = result == null ? part : new MSOTFormula(formula.op == MSOTFormula.Op.EXISTS ? MSOTFormula.Op.OR : MSOTFormula.Op.AND, result, part);
+                }
+                return result;
             }
         }
+        return new MSOTFormula(MSOTFormula.Op.FALSE);
+    }
 
-        //return output if vaild, inform error otherwise 
-        if (vaild == true) {
-            return output;
-        } else {
-            System.err.println("Error. Undefined output.");
-            return "";
+    /**
+     * Run MSOT over input string without tracing
+     * @param inputString input string
+     * @return Output string
+     */
+    public String run(String inputString) {
+        return run(inputString, TraceListener.NONE);
+    }
+
+    /**
+     * Run MSOT over input string
+     * The trace reports the walk along the output graph, a step is a vertex given as (copy,position).
+     * @param inputString input string
+     * @param trace listener receiving every step of the walk
+     * @return Output string
+     */
+    public String run(String inputString, TraceListener trace) {
+        return context.get().run(inputString, trace);
+    }
+
+    /**
+     * Run MSOT over many input strings without tracing
+     * The compiled formulas and the arrays of the runs are shared by all runs.
+     * @param inputStrings input strings
+     * @return Output strings in the order of the input strings
+     */
+    public List<String> runAll(Iterable<String> inputStrings) {
+        ArrayList<String> outputs = new ArrayList<String>();
+        MSOTContext runs = context.get();
+        for (String inputString : inputStrings) {
+            outputs.add(runs.run(inputString, TraceListener.NONE));
         }
-        
+        return outputs;
     }
 
     /**
@@ -183,470 +383,224 @@ public class MSOT{
     }
 
     /**
-     * Evaluate whether Node Formula is true for input vertex
-     * @param formula the root of the tree representation of the formula
-     * @param vertexNum vertex number
-     * @return true or false
+     * Compile the parse tree of a node or edge formula
+     * @param root the root of the tree representation of the formula
+     * @param node whether it is a node formula, whose quantifiers range over the copy of x
+     * @return compiled formula
+     * @throws Exception if the formula uses an unknown variable, copy or symbol
+     */
+    private MSOTFormula compileFormula(Node root, boolean node) throws Exception {
+        HashMap<Character, Integer> slots = new HashMap<Character, Integer>();
+        slots.put('x', 0);
+        if (!node) {
+            slots.put('y', 1);
+        }
+        int[] frame = {2};
+        MSOTFormula formula = compileFormula(root, node, slots, frame);
+        formula.setFrame(frame[0]);
+        return formula;
+    }
+
+    /**
+     * Compile a subformula
+     * @param formula the root of the tree representation of the subformula
+     * @param node whether it is part of a node formula
+     * @param slots variable slots in scope
+     * @param frame number of slots used so far, raised for nested quantifiers
+     * @return compiled subformula
+     * @throws Exception if the formula uses an unknown variable, copy or symbol
      */
-    private Boolean evaluateNodeFormula(Node formula, int vertexNum) {
+    private MSOTFormula compileFormula(Node formula, boolean node, HashMap<Character, Integer> slots, int[] frame) throws Exception {
         String data = formula.getData();
         if (data.equals("*")) {
-            //logic for and
-            return evaluateNodeFormula(formula.getLeftChild(),vertexNum) && evaluateNodeFormula(formula.getRightChild(),vertexNum);
+            return new MSOTFormula(MSOTFormula.Op.AND, compileFormula(formula.getLeftChild(), node, slots, frame), compileFormula(formula.getRightChild(), node, slots, frame));
         } else if (data.equals("+")) {
-            //logic for or
-            return evaluateNodeFormula(formula.getLeftChild(),vertexNum) || evaluateNodeFormula(formula.getRightChild(),vertexNum);
+            return new MSOTFormula(MSOTFormula.Op.OR, compileFormula(formula.getLeftChild(), node, slots, frame), compileFormula(formula.getRightChild(), node, slots, frame));
         } else if (data.equals("!")) {
-            //logic for not
-            return !evaluateNodeFormula(formula.getLeftChild(),vertexNum);
+            return new MSOTFormula(MSOTFormula.Op.NOT, compileFormula(formula.getLeftChild(), node, slots, frame), null);
         } else if (data.equals("true")) {
-            //logic for true
-            return true;
+            return new MSOTFormula(MSOTFormula.Op.TRUE);
         } else if (data.equals("false")) {
-            //logic for false
-            return false;
-        } else if (data.matches("out\\{.\\}\\(.\\)")) {
-            //logic for formula out
-            //return true if the vertex has an out-edge with related symbol
-            if (vertexNum%outputNodeSet[0].length == outputNodeSet[0].length-1) {
-                return false;
+            return new MSOTFormula(MSOTFormula.Op.FALSE);
+        } else if (data.matches("[#$].")) {
+            //quantifiers take the next free slot, shadowing a variable of the same name
+            char var = data.charAt(1);
+            int slot = depth(slots);
+            if (slot >= 64) {
+                throw new Exception("Too many nested quantifiers in formula.");
             }
-            String symbol = data.substring(4, 5);
-            if (inputEdgeSet[vertexNum][vertexNum+1] != null && inputEdgeSet[vertexNum][vertexNum+1].equals(symbol)) {
-                return true;
+            frame[0] = Math.max(frame[0], slot+1);
+            Integer shadowed = slots.put(var, slot);
+            MSOTFormula body = compileFormula(formula.getLeftChild(), node, slots, frame);
+            if (shadowed == null) {
+                slots.remove(var);
+            } else {
+                slots.put(var, shadowed);
             }
-        } else if (data.matches("#.")) {
-            //logic for exist
-            for (int i = (vertexNum/outputNodeSet[0].length)*outputNodeSet[0].length; i < ((vertexNum/outputNodeSet[0].length)+1)*outputNodeSet[0].length; i++) {
-                if (evaluateNodeFormulaBound(formula.getLeftChild(),vertexNum,data.substring(1, 2),i)) {
-                    return true;
-                }
+            MSOTFormula result = new MSOTFormula(data.charAt(0) == '#' ? MSOTFormula.Op.EXISTS : MSOTFormula.Op.FORALL, body, null);
+            result.var1 = slot;
+            result.vars &= ~(1L << slot);
+            result.sameCopy = node;
+            planQuantifier(result);
+            return result;
+        } else if (data.matches("out\\{.\\}\\(.\\)")) {
+            MSOTFormula result = new MSOTFormula(MSOTFormula.Op.OUT);
+            result.symbol = symbolNum(data.substring(4, 5));
+            result.var1 = slot(slots, data.charAt(7));
+            result.vars = 1L << result.var1;
+            return result;
+        } else if (data.matches("(edge|next)\\{.\\}\\(.,.\\)") || data.matches("fps\\{.\\}\\(.,.\\)")) {
+            int offset = data.startsWith("fps") ? 3 : 4;
+            MSOTFormula.Op op = data.startsWith("edge") ? MSOTFormula.Op.EDGE : data.startsWith("next") ? MSOTFormula.Op.NEXT : MSOTFormula.Op.FPS;
+            MSOTFormula result = new MSOTFormula(op);
+            result.symbol = symbolNum(data.substring(offset+1, offset+2));
+            result.var1 = slot(slots, data.charAt(offset+4));
+            result.var2 = slot(slots, data.charAt(offset+6));
+            result.vars = 1L << result.var1 | 1L << result.var2;
+            if (result.symbol >= 0 && op == MSOTFormula.Op.NEXT) {
+                nextSymbol[result.symbol] = true;
+            } else if (result.symbol >= 0 && op == MSOTFormula.Op.FPS) {
+                fpsSymbol[result.symbol] = true;
             }
-            return false;
-        } else if (data.matches("$.")) {
-            //logic for forall
-            for (int i = (vertexNum/outputNodeSet[0].length)*outputNodeSet[0].length; i < ((vertexNum/outputNodeSet[0].length)+1)*outputNodeSet[0].length; i++) {
-                if (!evaluateNodeFormulaBound(formula.getLeftChild(),vertexNum,data.substring(1, 2),i))    {
-                    return false;
-                }
+            return result;
+        } else if (data.matches(".<.")) {
+            MSOTFormula result = new MSOTFormula(MSOTFormula.Op.LESS);
+            result.var1 = slot(slots, data.charAt(0));
+            result.var2 = slot(slots, data.charAt(2));
+            result.vars = 1L << result.var1 | 1L << result.var2;
+            return result;
+        } else if (data.matches("F\\{.*,.*\\}\\{.\\}\\(.,.\\)") && !node) {
+            //edge formulas can only be referred to from edge formulas, the output nodes are not known before
+            String[] formulaString = data.split(",|\\}\\{");
+            MSOTFormula result = new MSOTFormula(MSOTFormula.Op.REF);
+            result.copy1 = copyNum(formulaString[0].substring(2));
+            result.copy2 = copyNum(formulaString[1]);
+            if (outputAlphabet.get(formulaString[2].substring(0, 1)) == null) {
+                throw new Exception("Unknown output symbol: " + formulaString[2].substring(0, 1) + " in formula.");
             }
-            return true;
+            result.output = outputAlphabet.get(formulaString[2].substring(0, 1));
+            result.var1 = slot(slots, formulaString[2].charAt(3));
+            result.var2 = slot(slots, formulaString[3].charAt(0));
+            result.vars = 1L << result.var1 | 1L << result.var2;
+            return result;
         }
-        return false;
+        return new MSOTFormula(MSOTFormula.Op.FALSE);
     }
 
     /**
-     * Evaluate whether Node Formula is true for input bound vertex
-     * @param formula the root of the tree representation of the formula
-     * @param freeVertexNum free vertex number
-     * @param boundVar bound variable 
-     * @param boundVertexNum bound vertex number
-     * @return true or false
+     * Plan the evaluation of a quantifier from the conjuncts of its body, read as an existential
+     * Conjuncts in which only the bound variable is free form a filter that is tabulated over positions once per run,
+     * order constraints against other variables bound the positions searched
+     * and an edge to or from another variable pins the bound variable to a single vertex.
+     * A quantifier whose body has no other conjuncts is answered from the table without evaluating its body.
+     * @param quantifier compiled quantifier
      */
-    private Boolean evaluateNodeFormulaBound(Node formula, int freeVertexNum, String boundVar, int boundVertexNum) {
-        String data = formula.getData();
-        if (data.equals("*")) {
-            //logic for and
-            return evaluateNodeFormulaBound(formula.getLeftChild(),freeVertexNum,boundVar,boundVertexNum) && evaluateNodeFormulaBound(formula.getRightChild(),freeVertexNum,boundVar,boundVertexNum);
-        } else if (data.equals("+")) {
-            //logic for or
-            return evaluateNodeFormulaBound(formula.getLeftChild(),freeVertexNum,boundVar,boundVertexNum) || evaluateNodeFormulaBound(formula.getRightChild(),freeVertexNum,boundVar,boundVertexNum);
-        } else if (data.equals("!")) {
-            //logic for not
-            return !evaluateNodeFormulaBound(formula.getLeftChild(),freeVertexNum,boundVar,boundVertexNum);
-        } else if (data.equals("true")) {
-            //logic for true
-            return true;
-        } else if (data.equals("false")) {
-            //logic for false
-            return false;
-        } else if (data.matches("out\\{.\\}\\(.\\)")) {
-            //logic for formula out
-            //return true if the vertex has an out-edge with related symbol
-            String var = data.substring(7, 8);
-            if (var.equals(boundVar)) {
-                if (boundVertexNum == inputEdgeSet[0].length-1) {
-                    return false;
-                }
-                String symbol = data.substring(4, 5);
-                if (inputEdgeSet[boundVertexNum][boundVertexNum+1] != null && inputEdgeSet[boundVertexNum][boundVertexNum+1].equals(symbol)) {
-                    return true;
-                }
-            } else {
-                if (freeVertexNum == inputEdgeSet[0].length-1) {
-                    return false;
-                }
-                String symbol = data.substring(4, 5);
-                if (inputEdgeSet[freeVertexNum][freeVertexNum+1] != null && inputEdgeSet[freeVertexNum][freeVertexNum+1].equals(symbol)) {
-                    return true;
-                }
-            }
-        } else if (data.matches(".<.")) {
-            //logic for formal <
-            //return true if there is a path from the first vertex to the second vertex
-            if (data.substring(0, 1).equals(boundVar)) {
-                if (data.substring(2).equals(boundVar)) {
-                    return false;
+    private void planQuantifier(MSOTFormula quantifier) {
+        int var = quantifier.var1;
+        boolean exists = quantifier.op == MSOTFormula.Op.EXISTS;
+        quantifier.body = exists ? quantifier.left : new MSOTFormula(MSOTFormula.Op.NOT, quantifier.left, null);
+        quantifier.table = quantifierCount++;
+        ArrayList<MSOTFormula> conjuncts = new ArrayList<MSOTFormula>();
+        addConjuncts(quantifier.left, !exists, conjuncts);
+        ArrayList<Integer> boundVar = new ArrayList<Integer>();
+        ArrayList<Integer> boundKind = new ArrayList<Integer>();
+        for (MSOTFormula conjunct : conjuncts) {
+            boolean negated = conjunct.op == MSOTFormula.Op.NOT;
+            MSOTFormula atom = negated ? conjunct.left : conjunct;
+            boolean first = atom.var1 == var && atom.var2 != var;
+            boolean second = atom.var2 == var && atom.var1 != var;
+            if ((conjunct.vars & ~(1L << var)) == 0) {
+                quantifier.filter = quantifier.filter == null ? conjunct : new MSOTFormula(MSOTFormula.Op.AND, quantifier.filter, conjunct);
+            } else if (atom.op == MSOTFormula.Op.LESS && (first || second)) {
+                boundVar.add(first ? atom.var2 : atom.var1);
+                if (first) {
+                    boundKind.add(negated ? MSOTFormula.GREATER_EQUAL : MSOTFormula.LESS_THAN);
                 } else {
-                    if (freeVertexNum > boundVertexNum) {
-                        return true;
-                    }
+                    boundKind.add(negated ? MSOTFormula.LESS_EQUAL : MSOTFormula.GREATER);
                 }
+            } else if (atom.op == MSOTFormula.Op.EDGE && !negated && (first || second) && quantifier.pinVar < 0) {
+                quantifier.pinVar = first ? atom.var2 : atom.var1;
+                quantifier.pinOffset = first ? -1 : 1;
             } else {
-                if (data.substring(2).equals(boundVar)) {
-                    if (freeVertexNum < boundVertexNum) {
-                        return true;
-                    }
-                }
+                quantifier.residual = true;
             }
         }
-        return false;
+        quantifier.boundVar = new int[boundVar.size()];
+        quantifier.boundKind = new int[boundKind.size()];
+        for (int i = 0; i < boundVar.size(); i++) {
+            quantifier.boundVar[i] = boundVar.get(i);
+            quantifier.boundKind[i] = boundKind.get(i);
+        }
     }
 
     /**
-     * Evaluate whether Node Formula is true for input vertex
-     * @param formula the root of the tree representation of the formula
-     * @param vertex1Num the first vertex number
-     * @param vertex1Num the second vertex number
-     * @return true or false
+     * Collect the conjuncts of a formula or of its negation
+     * @param formula compiled formula
+     * @param negate whether to collect the conjuncts of the negation, pushing it through or and not
+     * @param conjuncts list receiving the conjuncts
      */
-    private Boolean evaluateEdgeFormula(Node formula, int vertex1Num, int vertex2Num) {
-        String data = formula.getData();
-        if (data.equals("*")) {
-            //logic for and
-            return evaluateEdgeFormula(formula.getLeftChild(),vertex1Num,vertex2Num) && evaluateEdgeFormula(formula.getRightChild(),vertex1Num,vertex2Num);
-        } else if (data.equals("+")) {
-            //logic for or
-            return evaluateEdgeFormula(formula.getLeftChild(),vertex1Num,vertex2Num) || evaluateEdgeFormula(formula.getRightChild(),vertex1Num,vertex2Num);
-        } else if (data.equals("!")) {
-            //logic for not
-            return !evaluateEdgeFormula(formula.getLeftChild(),vertex1Num,vertex2Num);
-        } else if (data.equals("true")) {
-            //logic for true
-            return true;
-        } else if (data.equals("false")) {
-            //logic for false
-            return false;
-        } else if (data.matches("edge\\{.\\}\\(.,.\\)")) {
-            //logic for formula edge
-            //return true if there is an edge with related symbol from the first vertex to the second vertex
-            if (data.substring(8, 9).equals("x") && data.substring(10, 11).equals("y")) {
-                if (vertex1Num+1 == vertex2Num && vertex1Num%outputNodeSet[0].length != outputNodeSet[0].length-1) {
-                    String symbol = data.substring(5, 6);
-                    if (inputEdgeSet[vertex1Num][vertex2Num] != null && inputEdgeSet[vertex1Num][vertex2Num].equals(symbol)) {
-                        return true;
-                    }
-                }
-            } else if (data.substring(8, 9).equals("y") && data.substring(10, 11).equals("x")) {
-                if (vertex2Num+1 == vertex1Num && vertex2Num%outputNodeSet[0].length != outputNodeSet[0].length-1) {
-                    String symbol = data.substring(5, 6);
-                    if (inputEdgeSet[vertex2Num][vertex1Num] != null && inputEdgeSet[vertex2Num][vertex1Num].equals(symbol)) {
-                        return true;
-                    }
-                }
-            }
-        } else if (data.matches("out\\{.\\}\\([xy]\\)")) {
-            //logic for formula out
-            //return true if the vertex has an out-edge with related symbol
-            if (data.substring(7, 8).equals("x")) {
-                if (vertex1Num%outputNodeSet[0].length == outputNodeSet[0].length-1) {
-                    return false;
-                }
-                String symbol = data.substring(4, 5);
-                if (inputEdgeSet[vertex1Num][vertex1Num+1] != null && inputEdgeSet[vertex1Num][vertex1Num+1].equals(symbol)) {
-                    return true;
-                }
-            } else if (data.substring(7, 8).equals("y")) {
-                if (vertex2Num%outputNodeSet[0].length == outputNodeSet[0].length-1) {
-                    return false;
-                }
-                String symbol = data.substring(4, 5);
-                if (inputEdgeSet[vertex2Num][vertex2Num+1] != null && inputEdgeSet[vertex2Num][vertex2Num+1].equals(symbol)) {
-                    return true;
-                }
-            }
-        } else if (data.matches("next\\{.\\}\\([xy],[xy]\\)")) {
-            //logic for formula next
-            //return true if the second vertex is the first vertx after the first vertx that has an out-edge with related symbol 
-            String symbol = data.substring(5, 6);
-            if (data.substring(8, 9).equals("x") && data.substring(10, 11).equals("y")) {
-                int currCopyNum = vertex1Num/outputNodeSet[0].length;
-                int currVertex = vertex1Num + 1;
-                while (currVertex < (currCopyNum+1)*outputNodeSet[0].length-1 && !inputEdgeSet[currVertex][currVertex+1].equals(symbol) ) {
-                    currVertex += 1;
-                }
-                if (vertex2Num%outputNodeSet[0].length == currVertex%outputNodeSet[0].length) {
-                    return true;
-                }
-            } else if (data.substring(8, 9).equals("y") && data.substring(10, 11).equals("x")) {
-                int currCopyNum = vertex2Num/outputNodeSet[0].length;
-                int currVertex = vertex2Num + 1;
-                while (currVertex < (currCopyNum+1)*outputNodeSet[0].length-1 && !inputEdgeSet[currVertex][currVertex+1].equals(symbol) ) {
-                    currVertex += 1;
-                }
-                if (vertex1Num%outputNodeSet[0].length == currVertex%outputNodeSet[0].length) {
-                    return true;
-                }
-            }
-        } else if (data.matches("fps\\{.\\}\\([xy],[xy]\\)")) {
-            //logic for formula fps
-            //return true if the second vertex is the first vertx in the front of the first vertx that has an out-edge with related symbol 
-            String symbol = data.substring(4, 5);
-            if (data.substring(7, 8).equals("x") && data.substring(9, 10).equals("y")) {
-                int currCopyNum = vertex1Num/outputNodeSet[0].length;
-                int currVertex = vertex1Num;
-                while (currVertex > currCopyNum*outputNodeSet[0].length && inputEdgeSet[currVertex-1][currVertex].equals(symbol) ) {
-                    currVertex -= 1;
-                }
-                if (vertex2Num%outputNodeSet[0].length == currVertex%outputNodeSet[0].length) {
-                    return true;
-                }
-            } else if (data.substring(7, 8).equals("y") && data.substring(9, 10).equals("x")) {
-                int currCopyNum = vertex2Num/outputNodeSet[0].length;
-                int currVertex = vertex2Num;
-                while (currVertex > currCopyNum*outputNodeSet[0].length && inputEdgeSet[currVertex-1][currVertex].equals(symbol) ) {
-                    currVertex -= 1;
-                }
-                if (vertex1Num%outputNodeSet[0].length == currVertex%outputNodeSet[0].length) {
-                    return true;
-                }
-            }
-        } else if (data.matches("F\\{.*,.*\\}\\{.\\}\\([xy],[xy]\\)")) {
-            //logic for edge formulas
-            //return true if the edge formula is true
-            String[] formulaString = data.split(",|\\}\\{");
-            int copy1Num = copySet.get(formulaString[0].substring(2));
-            int copy2Num = copySet.get(formulaString[1]);
-            int outputNum = outputAlphabet.get(formulaString[2].substring(0, 1));
-            String var1 = formulaString[2].substring(3, 4);
-            String var2 = formulaString[3].substring(0, 1);
-            if (var1.equals("x") && var2.equals("y")) {
-                if (vertex1Num/outputNodeSet[0].length == copy1Num && vertex2Num/outputNodeSet[0].length == copy2Num) {
-                    return evaluateEdgeFormula(edgeFormula[copy1Num][copy2Num][outputNum],vertex1Num,vertex2Num);
-                }
-            } else if (var1.equals("y") && var2.equals("x")) {
-                if (vertex2Num/outputNodeSet[0].length == copy1Num && vertex1Num/outputNodeSet[0].length == copy2Num) {
-                    return evaluateEdgeFormula(edgeFormula[copy1Num][copy2Num][outputNum],vertex2Num,vertex1Num);
-                }
-            }
-        } else if (data.matches("#.")) {
-            //logic for exist
-            for (int i = 0; i < inputEdgeSet.length; i++) {
-                if (evaluateEdgeFormulaBound(formula.getLeftChild(),vertex1Num,vertex2Num,data.substring(1, 2),i)) {
-                    return true;
-                }
-            }
-            return false;
-        } else if (data.matches("$.")) {
-            //logic for forall
-            for (int i = 0; i < inputEdgeSet.length; i++) {
-                if (!evaluateEdgeFormulaBound(formula.getLeftChild(),vertex1Num,vertex2Num,data.substring(1, 2),i))    {
-                    return false;
-                }
-            }
-            return true;
+    private void addConjuncts(MSOTFormula formula, boolean negate, ArrayList<MSOTFormula> conjuncts) {
+        if (formula.op == (negate ? MSOTFormula.Op.OR : MSOTFormula.Op.AND)) {
+            addConjuncts(formula.left, negate, conjuncts);
+            addConjuncts(formula.right, negate, conjuncts);
+        } else if (formula.op == MSOTFormula.Op.NOT) {
+            addConjuncts(formula.left, !negate, conjuncts);
+        } else if (negate) {
+            conjuncts.add(new MSOTFormula(MSOTFormula.Op.NOT, formula, null));
+        } else {
+            conjuncts.add(formula);
         }
-        return false;
     }
 
     /**
-     * Evaluate whether Edge Formula is true for input bound vertex
-     * @param formula the root of the tree representation of the formula
-     * @param vertex1Num the first free vertex number
-     * @param vertex2Num the second free vertex number
-     * @param boundVar bound variable 
-     * @param boundVertexNum bound vertex number
-     * @return true or false
+     * Get the first slot above all variables in scope
+     * @param slots variable slots in scope
+     * @return free slot
      */
-    private Boolean evaluateEdgeFormulaBound(Node formula, int vertex1Num, int vertex2Num, String boundVar, int boundVertexNum) {
-        String data = formula.getData();
-        if (data.equals("*")) {
-            //logic for and
-            return evaluateEdgeFormulaBound(formula.getLeftChild(),vertex1Num,vertex2Num,boundVar,boundVertexNum) && evaluateEdgeFormulaBound(formula.getRightChild(),vertex1Num,vertex2Num,boundVar,boundVertexNum);
-        } else if (data.equals("+")) {
-            //logic for or
-            return evaluateEdgeFormulaBound(formula.getLeftChild(),vertex1Num,vertex2Num,boundVar,boundVertexNum) || evaluateEdgeFormulaBound(formula.getRightChild(),vertex1Num,vertex2Num,boundVar,boundVertexNum);
-        } else if (data.equals("!")) {
-            //logic for not
-            return !evaluateEdgeFormulaBound(formula.getLeftChild(),vertex1Num,vertex2Num,boundVar,boundVertexNum);
-        } else if (data.equals("true")) {
-            //logic for true
-            return true;
-        } else if (data.equals("false")) {
-            //logic for false
-            return false;
-        } else if (data.matches("edge\\{.\\}\\(.,.\\)")) {
-            //logic for formula edge
-            //return true if there is an edge with related symbol from the first vertex to the second vertex
-            if (data.substring(8, 9).equals(boundVar)) {
-                if (data.substring(10, 11).equals("x")) {
-                    if (boundVertexNum+1 == vertex1Num && boundVertexNum%outputNodeSet[0].length != outputNodeSet[0].length-1) {
-                        String symbol = data.substring(5, 6);
-                        if (inputEdgeSet[boundVertexNum][vertex1Num] != null && inputEdgeSet[boundVertexNum][vertex1Num].equals(symbol)) {
-                            return true;
-                        }
-                    }                  
-                } else if (data.substring(10, 11).equals("y")) {
-                    if (boundVertexNum+1 == vertex2Num && boundVertexNum%outputNodeSet[0].length != outputNodeSet[0].length-1) {
-                        String symbol = data.substring(5, 6);
-                        if (inputEdgeSet[boundVertexNum][vertex2Num] != null && inputEdgeSet[boundVertexNum][vertex2Num].equals(symbol)) {
-                            return true;
-                        }
-                    }
-                }
-            } else if (data.substring(10, 11).equals(boundVar)) {
-                if (data.substring(8, 9).equals("x")) {
-                    if (vertex1Num+1 == boundVertexNum && vertex1Num%outputNodeSet[0].length != outputNodeSet[0].length-1) {
-                        String symbol = data.substring(5, 6);
-                        if (inputEdgeSet[vertex1Num][boundVertexNum] != null && inputEdgeSet[vertex1Num][boundVertexNum].equals(symbol)) {
-                            return true;
-                        }
-                    }                  
-                } else if (data.substring(8, 9).equals("y")) {
-                    if (vertex2Num+1 == boundVertexNum && vertex2Num%outputNodeSet[0].length != outputNodeSet[0].length-1) {
-                        String symbol = data.substring(5, 6);
-                        if (inputEdgeSet[vertex2Num][boundVertexNum] != null && inputEdgeSet[vertex2Num][boundVertexNum].equals(symbol)) {
-                            return true;
-                        }
-                    }   
-                }
-            }
-        } else if (data.matches("out\\{.\\}\\(.\\)")) {
-            //logic for formula out
-            //return true if the vertex has an out-edge with related symbol
-            if (data.substring(7, 8).equals(boundVar)) {
-                if (boundVertexNum%outputNodeSet[0].length == outputNodeSet[0].length-1) {
-                    return false;
-                }
-                String symbol = data.substring(4, 5);
-                if (inputEdgeSet[boundVertexNum][boundVertexNum+1] != null && inputEdgeSet[boundVertexNum][boundVertexNum+1].equals(symbol)) {
-                    return true;
-                }
-            }
-        } else if (data.matches("next\\{.\\}\\(.,.\\)")) {
-            //logic for formula next
-            //return true if the second vertex is the first vertx after the first vertx that has an out-edge with related symbol
-            String symbol = data.substring(5, 6);
-            if (data.substring(8, 9).equals(boundVar)) {
-                if (data.substring(10, 11).equals("x")) {
-                    int currCopyNum = boundVertexNum/outputNodeSet[0].length;
-                    int currVertex = boundVertexNum + 1;
-                    while (currVertex < (currCopyNum+1)*outputNodeSet[0].length-1 && !inputEdgeSet[currVertex][currVertex+1].equals(symbol)) {
-                        currVertex += 1;
-                    }
-                    if (vertex1Num%outputNodeSet[0].length == currVertex%outputNodeSet[0].length) {
-                        return true;
-                    }
-                } else if (data.substring(10, 11).equals("y")) {
-                    int currCopyNum = boundVertexNum/outputNodeSet[0].length;
-                    int currVertex = boundVertexNum + 1;
-                    while (currVertex < (currCopyNum+1)*outputNodeSet[0].length-1 && !inputEdgeSet[currVertex][currVertex+1].equals(symbol)) {
-                        currVertex += 1;
-                    }
-                    if (vertex2Num%outputNodeSet[0].length == currVertex%outputNodeSet[0].length) {
-                        return true;
-                    }
-                }
-            } else if (data.substring(10, 11).equals(boundVar)) {
-                if (data.substring(8, 9).equals("x")) {
-                    int currCopyNum = vertex1Num/outputNodeSet[0].length;
-                    int currVertex = vertex1Num + 1;
-                    while (currVertex < (currCopyNum+1)*outputNodeSet[0].length-1 && !inputEdgeSet[currVertex][currVertex+1].equals(symbol)) {
-                        currVertex += 1;
-                    }
-                    if (boundVertexNum%outputNodeSet[0].length == currVertex%outputNodeSet[0].length) {
-                        return true;
-                    }
-                } else if (data.substring(8, 9).equals("y")) {
-                    int currCopyNum = vertex2Num/outputNodeSet[0].length;
-                    int currVertex = vertex2Num + 1;
-                    while (currVertex < (currCopyNum+1)*outputNodeSet[0].length-1 && !inputEdgeSet[currVertex][currVertex+1].equals(symbol)) {
-                        currVertex += 1;
-                    }
-                    if (boundVertexNum%outputNodeSet[0].length == currVertex%outputNodeSet[0].length) {
-                        return true;
-                    }
-                }
-            }
-        } else if (data.matches("fps\\{.\\}\\(.,.\\)")) {
-            //logic for formula fps
-            //return true if the second vertex is the first vertx in the front of the first vertx that has an out-edge with related symbol 
-            String symbol = data.substring(4, 5);
-            if (data.substring(7, 8).equals(boundVar)) {
-                if (data.substring(9, 10).equals("x")) {
-                    int currCopyNum = boundVertexNum/outputNodeSet[0].length;
-                    int currVertex = boundVertexNum;
-                    while (currVertex > currCopyNum*outputNodeSet[0].length && inputEdgeSet[currVertex-1][currVertex].equals(symbol) ) {
-                        currVertex -= 1;
-                    }
-                    if (vertex1Num%outputNodeSet[0].length == currVertex%outputNodeSet[0].length) {
-                        return true;
-                    }
-                } else if (data.substring(9, 10).equals("y")) {
-                    int currCopyNum = boundVertexNum/outputNodeSet[0].length;
-                    int currVertex = boundVertexNum;
-                    while (currVertex > currCopyNum*outputNodeSet[0].length && inputEdgeSet[currVertex-1][currVertex].equals(symbol) ) {
-                        currVertex -= 1;
-                    }
-                    if (vertex2Num%outputNodeSet[0].length == currVertex%outputNodeSet[0].length) {
-                        return true;
-                    }
-                }
-            } else if (data.substring(9, 10).equals(boundVar)) {
-                if (data.substring(7, 8).equals("x")) {
-                    int currCopyNum = vertex1Num/outputNodeSet[0].length;
-                    int currVertex = vertex1Num;
-                    while (currVertex > currCopyNum*outputNodeSet[0].length && inputEdgeSet[currVertex-1][currVertex].equals(symbol) ) {
-                        currVertex -= 1;
-                    }
-                    if (boundVertexNum%outputNodeSet[0].length == currVertex%outputNodeSet[0].length) {
-                        return true;
-                    }
-                } else if (data.substring(7, 8).equals("y")) {
-                    int currCopyNum = vertex2Num/outputNodeSet[0].length;
-                    int currVertex = vertex2Num;
-                    while (currVertex > currCopyNum*outputNodeSet[0].length && inputEdgeSet[currVertex-1][currVertex].equals(symbol) ) {
-                        currVertex -= 1;
-                    }
-                    if (boundVertexNum%outputNodeSet[0].length == currVertex%outputNodeSet[0].length) {
-                        return true;
-                    }
-                }
-            }
-        } else if (data.matches("F\\{.*,.*\\}\\{.\\}\\(.,.\\)")) {
-            //logic for edge formulas
-            //return true if the edge formula is true and the bound vertex is vaild in the output node set
-            if (outputNodeSet[boundVertexNum/outputNodeSet[0].length][boundVertexNum%outputNodeSet[0].length] == false) {
-                return false;
-            }
-            String[] formulaString = data.split(",|\\}\\{");
-            int copy1Num = copySet.get(formulaString[0].substring(2));
-            int copy2Num = copySet.get(formulaString[1]);
-            int outputNum = outputAlphabet.get(formulaString[2].substring(0, 1));
-            String var1 = formulaString[2].substring(3, 4);
-            String var2 = formulaString[3].substring(0, 1);
-            if (var1.equals(boundVar)) {
-                if (var2.equals("x")) {
-                    if (boundVertexNum/outputNodeSet[0].length == copy1Num && vertex1Num/outputNodeSet[0].length == copy2Num) {
-                        return evaluateEdgeFormula(edgeFormula[copy1Num][copy2Num][outputNum],boundVertexNum,vertex1Num);
-                    }
-                } else if (var2.equals("y")) {
-                    if (boundVertexNum/outputNodeSet[0].length == copy1Num && vertex2Num/outputNodeSet[0].length == copy2Num) {
-                        return evaluateEdgeFormula(edgeFormula[copy1Num][copy2Num][outputNum],boundVertexNum,vertex2Num);
-                    }
-                }
-            } else if (var2.equals(boundVar)) {
-                if (var1.equals("x")) {
-                    if (vertex1Num/outputNodeSet[0].length == copy1Num && boundVertexNum/outputNodeSet[0].length == copy2Num) {
-                        return evaluateEdgeFormula(edgeFormula[copy1Num][copy2Num][outputNum],vertex1Num,boundVertexNum);
-                    }
-                } else if (var1.equals("y")) {
-                    if (vertex2Num/outputNodeSet[0].length == copy1Num && boundVertexNum/outputNodeSet[0].length == copy2Num) {
-                        return evaluateEdgeFormula(edgeFormula[copy1Num][copy2Num][outputNum],vertex2Num,boundVertexNum);
-                    }
-                }
-            }
+    private int depth(HashMap<Character, Integer> slots) {
+        int depth = 2;
+        for (int slot : slots.values()) {
+            depth = Math.max(depth, slot+1);
+        }
+        return depth;
+    }
+
+    /**
+     * Get the slot of a variable in scope
+     * @param slots variable slots in scope
+     * @param var variable name
+     * @return slot
+     * @throws Exception if the variable is not in scope
+     */
+    private int slot(HashMap<Character, Integer> slots, char var) throws Exception {
+        if (slots.get(var) == null) {
+            throw new Exception("Unknown variable: " + var + " in formula.");
+        }
+        return slots.get(var);
+    }
+
+    /**
+     * Get the number of an input symbol
+     * @param symbol input symbol
+     * @return symbol number, -1 if it is not in the input alphabet
+     */
+    private int symbolNum(String symbol) {
+        Integer symbolNum = inputAlphabet.get(symbol);
+        return symbolNum == null ? -1 : symbolNum;
+    }
+
+    /**
+     * Get the number of a copy
+     * @param copy copy name
+     * @return copy number
+     * @throws Exception if the copy is not in the copy set
+     */
+    private int copyNum(String copy) throws Exception {
+        if (copySet.get(copy) == null) {
+            throw new Exception("Unknown copy set: " + copy + " in formula.");
         }
-        return false;
+        return copySet.get(copy);
     }
+
+
 }
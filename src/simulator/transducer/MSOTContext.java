@@ -0,0 +1,943 @@
+package simulator.transducer;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * The state of the runs of a MSOT in one thread
+ * A context holds the input string graph, the output graph and everything else a run writes,
+ * so that the MSOT itself is only read during runs and can be run by several threads, each with its own context.
+ * A context keeps its arrays from one run to the next.
+ */
+class MSOTContext {
+
+    private MSOT msot;
+
+    // Input symbol numbers indexed by position, shared by all copies of the input string graph.
+    // Vertex i of a copy has its only out-edge to vertex i+1 of the same copy, labelled inputSymbol[i].
+    private int[] inputSymbol;
+    // Number of vertices in all copies of the input string graph.
+    private int vertexCount;
+    // Number of vertices in each copy, the input length plus one.
+    private int width;
+    // Number of words holding the positions of a copy in the bitsets below.
+    private int words;
+    // Output nodes of each copy, one bit per position, position p in bit p%64 of word p/64.
+    private long[][] outputNodeSet;
+    // Positions of each input symbol in the same form.
+    private long[][] symbolSet;
+    // For each input symbol of next and fps atoms, the first position from p on with an out-edge labelled by it,
+    // width-1 if there is none, and the first position of the run of out-edges labelled by it that ends at p.
+    // Entries of other symbols are null.
+    private int[][] nextPosition;
+    private int[][] runStart;
+
+    // Arrays of the output graph and its walk, indexed by vertex, see run.
+    // All arrays of a run are kept for the next one and only reallocated for a longer input,
+    // their capacity is the largest number of vertices per copy they can hold.
+    private int capacity = 0;
+    private int[] outputNext;
+    private int[] outputLabel;
+    private int[] outputPrev;
+    private int[] inDegree;
+    private int[] backward;
+    private long[] positions;
+
+    // number of runs of this context, telling position tables and remembered results of earlier runs apart
+    private long runCount = 0;
+    // evaluator used by the calling thread
+    private Evaluator evaluator;
+
+    // evaluators of the pool threads, kept between runs
+    private ThreadLocal<Evaluator> workerEvaluator = new ThreadLocal<Evaluator>() {
+        @Override
+        protected Evaluator initialValue() {
+            return new Evaluator();
+        }
+    };
+    // number of sources below which a range of edge rows is no longer split between threads
+    private static final int EDGE_GRAIN = 32;
+    // number of words of positions below which a range of node formula results is no longer split between threads
+    private static final int NODE_GRAIN = 4;
+    // initial and largest number of entries in the table of remembered results, see Evaluator.recall
+    private static final int MEMO_SIZE = 1 << 10;
+    private static final int MEMO_LIMIT = 1 << 20;
+
+    // Instances of the generated classes of the formulas bound to the runs of this context, null until first used.
+    private CompiledFormula[] nodeTest;
+    private CompiledFormula[][][] edgeTest;
+
+    MSOTContext(MSOT msot) {
+        this.msot = msot;
+        this.evaluator = new Evaluator();
+    }
+
+    /**
+     * Find the output nodes of a copy with its automaton
+     * A position is an output node if the automaton accepts the input with x there,
+     * decided from the state reached before it and the states accepting the rest of the input.
+     * @param copy copy number
+     * @param word letters of the input followed by the end marker
+     */
+    private void automatonNodes(int copy, int[] word) {
+        MSOAutomaton automaton = msot.nodeAutomaton[copy];
+        int[] states = automaton.forward(word);
+        long[] rest = automaton.backward(word);
+        for (int i = 0; i < width; i++) {
+            if (automaton.accepts(rest, i+1, automaton.step(states[i], word[i], 1))) {
+                outputNodeSet[copy][i >>> 6] |= 1L << i;
+            }
+        }
+    }
+
+    /**
+     * Find the edges of an edge formula with its automaton
+     * For every source only the edge to the smallest target is kept, as in the walk.
+     * Targets before their source are found by one pass from each target, the others by one pass from each source.
+     * @param copy1 copy of the sources
+     * @param copy2 copy of the targets
+     * @param outputNum output symbol
+     * @param word letters of the input followed by the end marker
+     * @param outputNext out-edge of each vertex
+     * @param outputLabel label of the out-edge of each vertex
+     */
+    private void automatonEdges(int copy1, int copy2, int outputNum, int[] word, int[] outputNext, int[] outputLabel) {
+        MSOAutomaton automaton = msot.edgeAutomaton[copy1][copy2][outputNum];
+        int[] states = automaton.forward(word);
+        long[] rest = automaton.backward(word);
+        boolean[] live = automaton.live();
+        int[] target = new int[width];
+        Arrays.fill(target, -1);
+        for (int l = 0; l < width; l++) {
+            if (isOutputNode(copy2, l)) {
+                int state = automaton.step(states[l], word[l], 2);
+                for (int k = l+1; k < width && live[state]; k++) {
+                    if (target[k] < 0 && isOutputNode(copy1, k) && automaton.accepts(rest, k+1, automaton.step(state, word[k], 1))) {
+                        target[k] = l;
+                    }
+                    state = automaton.step(state, word[k], 0);
+                }
+            }
+        }
+        for (int k = 0; k < width; k++) {
+            if (!isOutputNode(copy1, k) || target[k] >= 0) {
+                continue;
+            }
+            if (isOutputNode(copy2, k) && automaton.accepts(rest, k+1, automaton.step(states[k], word[k], 3))) {
+                target[k] = k;
+                continue;
+            }
+            int state = automaton.step(states[k], word[k], 1);
+            for (int l = k+1; l < width && live[state]; l++) {
+                if (isOutputNode(copy2, l) && automaton.accepts(rest, l+1, automaton.step(state, word[l], 2))) {
+                    target[k] = l;
+                    break;
+                }
+                state = automaton.step(state, word[l], 0);
+            }
+        }
+        for (int k = 0; k < width; k++) {
+            if (target[k] >= 0) {
+                int source = copy1*width+k;
+                int next = copy2*width+target[k];
+                if (outputNext[source] == -1 || next <= outputNext[source]) {
+                    outputNext[source] = next;
+                    outputLabel[source] = outputNum;
+                }
+            }
+        }
+    }
+
+    /**
+     * Run MSOT over input string
+     * @param inputString input string
+     * @param trace listener receiving every step of the walk
+     * @return Output string
+     */
+    String run(String inputString, TraceListener trace) {
+        //initialise graph represetation
+        char [] stringArray = inputString.toCharArray();
+        runCount++;
+        prepare(inputString.length()+1);
+        //construct string representation, shared by its copies
+        for (int i = 0; i < stringArray.length; i++) {
+            Integer symbolNum = msot.inputAlphabet.get(String.valueOf(stringArray[i]));
+            if (symbolNum == null) {
+                throw new IllegalArgumentException("Unknown input symbol: " + stringArray[i] + ".");
+            }
+            inputSymbol[i] = symbolNum;
+            symbolSet[symbolNum][i >>> 6] |= 1L << i;
+        }
+        //tabulate next and fps for their symbols in one pass each
+        for (int symbol = 0; symbol < msot.inputAlphabet.size(); symbol++) {
+            if (msot.nextSymbol[symbol]) {
+                int[] next = nextPosition[symbol];
+                next[width-1] = width-1;
+                for (int i = width-2; i >= 0; i--) {
+                    next[i] = inputSymbol[i] == symbol ? i : next[i+1];
+                }
+            }
+            if (msot.fpsSymbol[symbol]) {
+                int[] start = runStart[symbol];
+                start[0] = 0;
+                for (int i = 1; i < width; i++) {
+                    start[i] = inputSymbol[i-1] == symbol ? start[i-1] : i;
+                }
+            }
+        }
+
+        MSOT.Engine engine = msot.engine;
+        ForkJoinPool pool = msot.pool;
+        boolean bytecode = engine == MSOT.Engine.BYTECODE && msot.generateTests();
+        if (bytecode) {
+            if (nodeTest == null) {
+                copyTests();
+            }
+            for (CompiledFormula test : nodeTest) {
+                if (test != null) {
+                    test.bind(inputSymbol, width, vertexCount, outputNodeSet, nextPosition, runStart, edgeTest);
+                }
+            }
+            for (CompiledFormula[][] tests : edgeTest) {
+                for (CompiledFormula[] testsBySymbol : tests) {
+                    for (CompiledFormula test : testsBySymbol) {
+                        if (test != null) {
+                            test.bind(inputSymbol, width, vertexCount, outputNodeSet, nextPosition, runStart, edgeTest);
+                        }
+                    }
+                }
+            }
+        }
+
+        boolean automaton = engine == MSOT.Engine.AUTOMATON && msot.buildAutomata();
+        int[] word = null;
+        if (automaton) {
+            word = new int[width];
+            for (int i = 0; i < width-1; i++) {
+                word[i] = inputSymbol[i];
+            }
+            word[width-1] = msot.inputAlphabet.size();
+        }
+
+        //use node formulas to construct new gragh, copies without a node formula have no output nodes
+        for (int i = 0; i < msot.nodeFormula.length; i++) {
+            if (msot.nodeFormula[i] == null) {
+                continue;
+            } else if (automaton) {
+                automatonNodes(i, word);
+            } else if (pool != null && words > NODE_GRAIN) {
+                pool.invoke(new NodeTask(i, 0, words, bytecode, positions));
+            } else {
+                nodeWords(evaluator, i, 0, words, bytecode, positions);
+            }
+        }
+
+        //use edge formulas to construct new gragh
+        if (automaton) {
+            for (int i = 0; i < msot.edgeFormula.length; i++) {
+                for (int j = 0; j < msot.edgeFormula.length; j++) {
+                    for (String outputSymbol : msot.outputAlphabet.keySet()) {
+                        int outputNum = msot.outputAlphabet.get(outputSymbol);
+                        if (msot.edgeFormula[i][j][outputNum] != null) {
+                            automatonEdges(i, j, outputNum, word, outputNext, outputLabel);
+                        }
+                    }
+                }
+            }
+        } else if (pool != null && vertexCount > EDGE_GRAIN) {
+            pool.invoke(new EdgeTask(0, vertexCount, bytecode, outputNext, outputLabel));
+        } else {
+            edgeRows(evaluator, 0, vertexCount, bytecode, outputNext, outputLabel);
+        }
+
+        //link every vertex to its predecessor, the smallest if there are several, and count output nodes
+        int nodeCount = 0;
+        for (int k = vertexCount-1; k >= 0; k--) {
+            if (outputNext[k] != -1) {
+                outputPrev[outputNext[k]] = k;
+                inDegree[outputNext[k]]++;
+            }
+        }
+        for (long[] nodes : outputNodeSet) {
+            for (int w = 0; w < words; w++) {
+                nodeCount += Long.bitCount(nodes[w]);
+            }
+        }
+        //a string has no vertex with two in-edges, out-edges are kept one per vertex already
+        Boolean vaild = true;
+        for (int k = 0; k < vertexCount; k++) {
+            if (inDegree[k] > 1) {
+                vaild = false;
+            }
+        }
+
+        //find string representation in the new gragh
+        StringBuilder forward = new StringBuilder();
+        int backwardLength = 0;
+        int prevVertex;
+        int nextVertex;
+        int visited = 0;
+
+        loop:for (int i = 0; i < msot.copySet.size() && vaild; i++) {
+            for (int j = 0; j < width; j++) {
+                if (isOutputNode(i, j)) {
+                    nextVertex = i*width+j;
+                    prevVertex = i*width+j;
+                    visited = 1;
+                    trace.start(msot.copyName, msot.outputName, i, j);
+                    //a walk longer than the number of output nodes is going round a cycle
+                    while (outputNext[nextVertex] != -1 && visited <= nodeCount) {
+                        int label = outputLabel[nextVertex];
+                        nextVertex = outputNext[nextVertex];
+                        visited++;
+                        forward.append(msot.outputName[label]);
+                        trace.step(nextVertex/width, nextVertex%width, label);
+                    }
+
+                    while (outputPrev[prevVertex] != -1 && visited <= nodeCount) {
+                        prevVertex = outputPrev[prevVertex];
+                        visited++;
+                        backward[backwardLength++] = outputLabel[prevVertex];
+                        trace.step(prevVertex/width, prevVertex%width, outputLabel[prevVertex]);
+                    }
+
+                    break loop;
+                }
+            }
+        }
+        StringBuilder outputBuilder = new StringBuilder();
+        for (int i = backwardLength-1; i >= 0; i--) {
+            outputBuilder.append(msot.outputName[backward[i]]);
+        }
+        String output = outputBuilder.append(forward).toString();
+
+        //check whether string representation is vaild, the walk has to visit every output node once
+        if (visited != nodeCount) {
+            vaild = false;
+        }
+
+        //return output if vaild, inform error otherwise 
+        if (vaild == true) {
+            trace.finish();
+            return output;
+        } else {
+            trace.fail("Undefined output.");
+            trace.finish();
+            return "";
+        }
+        
+    }
+
+    /**
+     * Find the output nodes of a copy among a range of positions
+     * @param evaluator evaluator of the calling thread
+     * @param copy copy number
+     * @param from first word of positions
+     * @param to word after the last
+     * @param bytecode whether the node formula is evaluated by its generated class
+     * @param positions all positions of a copy
+     */
+    private void nodeWords(Evaluator evaluator, int copy, int from, int to, boolean bytecode, long[] positions) {
+        long[] range = Arrays.copyOfRange(positions, from, to);
+        long[] nodes;
+        if (bytecode) {
+            nodes = new long[range.length];
+            for (int w = 0; w < range.length; w++) {
+                for (long bits = range[w]; bits != 0; bits &= bits-1) {
+                    int position = (from+w) << 6 | Long.numberOfTrailingZeros(bits);
+                    if (nodeTest[copy].test(copy*width+position, 0)) {
+                        nodes[w] |= bits & -bits;
+                    }
+                }
+            }
+        } else {
+            nodes = evaluator.nodeSet(msot.nodeFormula[copy], copy, range, from);
+        }
+        System.arraycopy(nodes, 0, outputNodeSet[copy], from, nodes.length);
+    }
+
+    /**
+     * Evaluation of the output nodes of a copy among a range of positions in the fork-join pool
+     * Ranges are halved down to NODE_GRAIN words, every task writes the words of its own positions only.
+     */
+    private class NodeTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private int copy;
+        private int from;
+        private int to;
+        private boolean bytecode;
+        private long[] positions;
+
+        NodeTask(int copy, int from, int to, boolean bytecode, long[] positions) {
+            this.copy = copy;
+            this.from = from;
+            this.to = to;
+            this.bytecode = bytecode;
+            this.positions = positions;
+        }
+
+        @Override
+        protected void compute() {
+            if (to-from <= NODE_GRAIN) {
+                nodeWords(workerEvaluator.get(), copy, from, to, bytecode, positions);
+            } else {
+                int middle = (from+to) >>> 1;
+                invokeAll(new NodeTask(copy, from, middle, bytecode, positions),
+                        new NodeTask(copy, middle, to, bytecode, positions));
+            }
+        }
+    }
+
+    /**
+     * Evaluate the edge formulas from a range of sources
+     * Of several out-edges of a source only the one to the smallest target is kept for the walk,
+     * of edges to the same target the one of the output symbol coming last.
+     * Sources are independent of each other, so ranges of them can be evaluated by different threads.
+     * @param evaluator evaluator of the calling thread
+     * @param from first source vertex
+     * @param to vertex after the last source
+     * @param bytecode whether the formulas are evaluated by their generated classes
+     * @param outputNext out-edge of each vertex
+     * @param outputLabel label of the out-edge of each vertex
+     */
+    private void edgeRows(Evaluator evaluator, int from, int to, boolean bytecode, int[] outputNext, int[] outputLabel) {
+        for (int source = from; source < to; source++) {
+            int i = source/width;
+            if (!isOutputNode(i, source%width)) {
+                continue;
+            }
+            for (int j = 0; j < msot.edgeFormula.length; j++) {
+                for (String outputSymbol : msot.outputAlphabet.keySet()) {
+                    int outputNum = msot.outputAlphabet.get(outputSymbol);
+                    MSOTFormula root = msot.edgeFormula[i][j][outputNum];
+                    if (root == null) {
+                        continue;
+                    }
+                    long[] targets = outputNodeSet[j];
+                    for (int w = 0; w < words; w++) {
+                        for (long bits = targets[w]; bits != 0; bits &= bits-1) {
+                            int target = j*width+(w << 6 | Long.numberOfTrailingZeros(bits));
+                            if (bytecode ? edgeTest[i][j][outputNum].test(source, target) : evaluator.test(root, source, target)) {
+                                if (outputNext[source] == -1 || target <= outputNext[source]) {
+                                    outputNext[source] = target;
+                                    outputLabel[source] = outputNum;
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Evaluation of the edges from a range of sources in the fork-join pool
+     * Ranges are halved down to EDGE_GRAIN sources, every task writes the out-edges of its own sources only.
+     */
+    private class EdgeTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private int from;
+        private int to;
+        private boolean bytecode;
+        private int[] outputNext;
+        private int[] outputLabel;
+
+        EdgeTask(int from, int to, boolean bytecode, int[] outputNext, int[] outputLabel) {
+            this.from = from;
+            this.to = to;
+            this.bytecode = bytecode;
+            this.outputNext = outputNext;
+            this.outputLabel = outputLabel;
+        }
+
+        @Override
+        protected void compute() {
+            if (to-from <= EDGE_GRAIN) {
+                edgeRows(workerEvaluator.get(), from, to, bytecode, outputNext, outputLabel);
+            } else {
+                int middle = (from+to) >>> 1;
+                invokeAll(new EdgeTask(from, middle, bytecode, outputNext, outputLabel),
+                        new EdgeTask(middle, to, bytecode, outputNext, outputLabel));
+            }
+        }
+    }
+
+    /**
+     * Create this context's own instances of the generated classes of the formulas, they are bound to its runs
+     */
+    private void copyTests() {
+        nodeTest = new CompiledFormula[msot.nodeTest.length];
+        for (int i = 0; i < nodeTest.length; i++) {
+            nodeTest[i] = msot.nodeTest[i] == null ? null : msot.nodeTest[i].copy();
+        }
+        edgeTest = new CompiledFormula[msot.edgeTest.length][msot.edgeTest.length][msot.outputName.length];
+        for (int i = 0; i < edgeTest.length; i++) {
+            for (int j = 0; j < edgeTest.length; j++) {
+                for (int k = 0; k < msot.outputName.length; k++) {
+                    edgeTest[i][j][k] = msot.edgeTest[i][j][k] == null ? null : msot.edgeTest[i][j][k].copy();
+                }
+            }
+        }
+    }
+
+    /**
+     * Set up the arrays of a run, reallocating them only if the input is longer than any before
+     * Only the part of each array used by the run is cleared.
+     * @param width number of vertices in each copy
+     */
+    private void prepare(int width) {
+        this.width = width;
+        vertexCount = msot.copySet.size()*width;
+        words = (width+63) >>> 6;
+        if (width > capacity) {
+            capacity = Math.max(width, 2*capacity);
+            int capacityWords = (capacity+63) >>> 6;
+            inputSymbol = new int[capacity];
+            outputNodeSet = new long[msot.copySet.size()][capacityWords];
+            symbolSet = new long[msot.inputAlphabet.size()][capacityWords];
+            nextPosition = new int[msot.inputAlphabet.size()][];
+            runStart = new int[msot.inputAlphabet.size()][];
+            for (int symbol = 0; symbol < msot.inputAlphabet.size(); symbol++) {
+                nextPosition[symbol] = msot.nextSymbol[symbol] ? new int[capacity] : null;
+                runStart[symbol] = msot.fpsSymbol[symbol] ? new int[capacity] : null;
+            }
+            outputNext = new int[msot.copySet.size()*capacity];
+            outputLabel = new int[msot.copySet.size()*capacity];
+            outputPrev = new int[msot.copySet.size()*capacity];
+            inDegree = new int[msot.copySet.size()*capacity];
+            backward = new int[msot.copySet.size()*capacity];
+            positions = new long[capacityWords];
+        }
+        for (long[] nodes : outputNodeSet) {
+            Arrays.fill(nodes, 0, words, 0L);
+        }
+        for (long[] symbols : symbolSet) {
+            Arrays.fill(symbols, 0, words, 0L);
+        }
+        // the output graph keeps one out-edge and one in-edge per vertex, -1 where there is none
+        Arrays.fill(outputNext, 0, vertexCount, -1);
+        Arrays.fill(outputPrev, 0, vertexCount, -1);
+        Arrays.fill(inDegree, 0, vertexCount, 0);
+        Arrays.fill(positions, 0, words, -1L);
+        if ((width & 63) != 0) {
+            positions[words-1] = (1L << width)-1;
+        }
+    }
+
+    /**
+     * Check whether a position of a copy is an output node
+     * @param copy copy number
+     * @param position position
+     * @return true if the position is an output node of the copy
+     */
+    private boolean isOutputNode(int copy, int position) {
+        return (outputNodeSet[copy][position >>> 6] & 1L << position) != 0;
+    }
+
+    /**
+     * Check whether a vertex of the input string graph has an out-edge with a symbol
+     * @param vertexNum vertex number
+     * @param symbol input symbol number
+     * @return true if the vertex is not the last of its copy and its out-edge has the symbol
+     */
+    private boolean hasOutEdge(int vertexNum, int symbol) {
+        int position = vertexNum%width;
+        return position != width-1 && inputSymbol[position] == symbol;
+    }
+
+    /**
+     * Evaluator of compiled formulas on the input graph of the current run
+     * An evaluator carries the variable slots and position tables of its evaluations,
+     * so that threads evaluating formulas at the same time each use their own.
+     */
+    private class Evaluator {
+
+        // Vertices assigned to variable slots during evaluation, each referred edge formula gets a frame above its caller's.
+        private int[] env = new int[16];
+
+        // Position tables of quantifier filters, see quantify, with the run and copy they were computed for.
+        private int[][] positionTable = new int[msot.quantifierCount][];
+        private long[] tableRun = new long[msot.quantifierCount];
+        private int[] tableCopy = new int[msot.quantifierCount];
+
+        // Results of referred edge formulas and quantifier searches in the run memoRun, see recall.
+        private long[] memo = new long[MEMO_SIZE];
+        private int memoCount = 0;
+        private long memoRun = 0;
+
+        /**
+         * Evaluate a node or edge formula
+         * @param formula compiled formula
+         * @param x vertex number of x
+         * @param y vertex number of y, ignored by node formulas
+         * @return true or false
+         */
+        boolean test(MSOTFormula formula, int x, int y) {
+            env[0] = x;
+            env[1] = y;
+            return evaluate(formula, 0);
+        }
+
+        /**
+         * Evaluate a referred edge formula in a frame above its caller's
+         * @param target referred edge formula
+         * @param vertex1 vertex number of x
+         * @param vertex2 vertex number of y
+         * @param frame first slot of the referred formula in env
+         * @return true or false
+         */
+        private boolean evaluate(MSOTFormula target, int vertex1, int vertex2, int frame) {
+            if (frame+target.frame > env.length) {
+                env = Arrays.copyOf(env, 2*(frame+target.frame));
+            }
+            env[frame] = vertex1;
+            env[frame+1] = vertex2;
+            return evaluate(target, frame);
+        }
+
+        /**
+         * Evaluate a referred edge formula at most once per pair of vertices in a run
+         * @param formula reference
+         * @param target referred edge formula
+         * @param vertex1 vertex number of x
+         * @param vertex2 vertex number of y
+         * @param frame first slot of the referred formula in env
+         * @return true or false
+         */
+        private boolean reference(MSOTFormula formula, MSOTFormula target, int vertex1, int vertex2, int frame) {
+            int id = (formula.copy1*msot.edgeFormula.length+formula.copy2)*msot.outputName.length+formula.output;
+            long key = memoKey(id, vertex1, vertex2);
+            int known = recall(key);
+            if (known >= 0) {
+                return known == 1;
+            }
+            boolean result = evaluate(target, vertex1, vertex2, frame);
+            remember(key, result);
+            return result;
+        }
+
+        /**
+         * Make the key of a remembered result
+         * Referred edge formulas are numbered by their copies and output symbol, quantifiers by their tables after them.
+         * @param id number of the formula
+         * @param vertex1 vertex of the first variable the result depends on
+         * @param vertex2 vertex of the second variable the result depends on
+         * @return key, 0 is left for free entries
+         */
+        private long memoKey(int id, int vertex1, int vertex2) {
+            return ((long) id*vertexCount+vertex1)*vertexCount+vertex2+1;
+        }
+
+        /**
+         * Look up a result remembered in the current run
+         * Results are kept in an open-addressing table of keys shifted left by one bit that holds the result.
+         * @param key key of the result
+         * @return 1 if true, 0 if false, -1 if not remembered
+         */
+        private int recall(long key) {
+            if (memoRun != runCount) {
+                Arrays.fill(memo, 0);
+                memoCount = 0;
+                memoRun = runCount;
+                return -1;
+            }
+            for (int i = memoSlot(key); memo[i] != 0; i = (i+1) & (memo.length-1)) {
+                if (memo[i] >>> 1 == key) {
+                    return (int) (memo[i] & 1);
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Remember a result for the rest of the run
+         * The table is doubled when half full and emptied when it would grow over MEMO_LIMIT entries.
+         * @param key key of the result
+         * @param result result
+         */
+        private void remember(long key, boolean result) {
+            if (2*(memoCount+1) > memo.length) {
+                if (memo.length >= MEMO_LIMIT) {
+                    Arrays.fill(memo, 0);
+                    memoCount = 0;
+                } else {
+                    long[] entries = memo;
+                    memo = new long[2*entries.length];
+                    for (long entry : entries) {
+                        if (entry != 0) {
+                            memo[freeSlot(entry >>> 1)] = entry;
+                        }
+                    }
+                }
+            }
+            memo[freeSlot(key)] = key << 1 | (result ? 1 : 0);
+            memoCount++;
+        }
+
+        private int freeSlot(long key) {
+            int i = memoSlot(key);
+            while (memo[i] != 0) {
+                i = (i+1) & (memo.length-1);
+            }
+            return i;
+        }
+
+        private int memoSlot(long key) {
+            return (int) (key*0x9E3779B97F4A7C15L >>> 40) & (memo.length-1);
+        }
+
+        /**
+         * Evaluate a node formula at a range of positions of a copy at once
+         * Logical operations and out{a}(x) are done a word of positions at a time,
+         * subformulas without free variables once for the copy and the other subformulas position by position.
+         * Positions are only evaluated where they decide the result, as when a conjunction is evaluated from the left.
+         * @param formula compiled node formula or subformula with no free variable but x
+         * @param copy copy number
+         * @param care positions to evaluate, starting at word from
+         * @param from first word of positions
+         * @return positions among care satisfying the formula, starting at word from
+         */
+        long[] nodeSet(MSOTFormula formula, int copy, long[] care, int from) {
+            long[] result = new long[care.length];
+            switch (formula.op) {
+                case AND:
+                    return nodeSet(formula.right, copy, nodeSet(formula.left, copy, care, from), from);
+                case OR: {
+                    long[] left = nodeSet(formula.left, copy, care, from);
+                    for (int w = 0; w < care.length; w++) {
+                        result[w] = care[w] & ~left[w];
+                    }
+                    long[] right = nodeSet(formula.right, copy, result, from);
+                    for (int w = 0; w < care.length; w++) {
+                        result[w] = left[w] | right[w];
+                    }
+                    return result;
+                }
+                case NOT: {
+                    long[] left = nodeSet(formula.left, copy, care, from);
+                    for (int w = 0; w < care.length; w++) {
+                        result[w] = care[w] & ~left[w];
+                    }
+                    return result;
+                }
+                case TRUE:
+                    return care.clone();
+                case FALSE:
+                    return result;
+                case OUT:
+                    if (formula.symbol >= 0) {
+                        for (int w = 0; w < care.length; w++) {
+                            result[w] = care[w] & symbolSet[formula.symbol][from+w];
+                        }
+                    }
+                    return result;
+                default:
+                    break;
+            }
+            if (formula.vars == 0) {
+                //quantifiers of node formulas range over the copy of x, which is all the formula depends on
+                return test(formula, copy*width, 0) ? care.clone() : result;
+            }
+            for (int w = 0; w < care.length; w++) {
+                for (long bits = care[w]; bits != 0; bits &= bits-1) {
+                    int position = (from+w) << 6 | Long.numberOfTrailingZeros(bits);
+                    if (test(formula, copy*width+position, 0)) {
+                        result[w] |= bits & -bits;
+                    }
+                }
+            }
+            return result;
+        }
+
+        /**
+         * Evaluate a compiled formula
+         * Variable slot i of the formula holds the vertex env[base+i].
+         * @param formula compiled formula
+         * @param base first slot of the formula in env
+         * @return true or false
+         */
+        private boolean evaluate(MSOTFormula formula, int base) {
+            switch (formula.op) {
+                case AND:
+                    return evaluate(formula.left, base) && evaluate(formula.right, base);
+                case OR:
+                    return evaluate(formula.left, base) || evaluate(formula.right, base);
+                case NOT:
+                    return !evaluate(formula.left, base);
+                case TRUE:
+                    return true;
+                case FALSE:
+                    return false;
+                case OUT:
+                    //return true if the vertex has an out-edge with related symbol
+                    return hasOutEdge(env[base+formula.var1], formula.symbol);
+                case EDGE:
+                    //return true if there is an edge with related symbol from the first vertex to the second vertex
+                    return env[base+formula.var1]+1 == env[base+formula.var2] && hasOutEdge(env[base+formula.var1], formula.symbol);
+                case NEXT: {
+                    //return true if the second vertex is the first vertx after the first vertx that has an out-edge with related symbol
+                    //the vertex after the last of a copy is at position 0
+                    int position = env[base+formula.var1]%width;
+                    int next = position == width-1 ? 0 : formula.symbol < 0 ? width-1 : nextPosition[formula.symbol][position+1];
+                    return env[base+formula.var2]%width == next;
+                }
+                case FPS: {
+                    //return true if the second vertex is the first vertx in the front of the first vertx that has an out-edge with related symbol
+                    int position = env[base+formula.var1]%width;
+                    int first = formula.symbol < 0 ? position : runStart[formula.symbol][position];
+                    return env[base+formula.var2]%width == first;
+                }
+                case LESS:
+                    //return true if there is a path from the first position to the second position
+                    return env[base+formula.var1]%width < env[base+formula.var2]%width;
+                case REF: {
+                    //return true if the edge formula is true and both vertices are vaild in the output node set
+                    int vertex1 = env[base+formula.var1];
+                    int vertex2 = env[base+formula.var2];
+                    MSOTFormula target = msot.edgeFormula[formula.copy1][formula.copy2][formula.output];
+                    if (target == null || vertex1/width != formula.copy1 || vertex2/width != formula.copy2
+                            || !isOutputNode(formula.copy1, vertex1%width) || !isOutputNode(formula.copy2, vertex2%width)) {
+                        return false;
+                    }
+                    //formulas without quantifiers are cheaper to evaluate again than to look up
+                    if (target.frame > 2) {
+                        return reference(formula, target, vertex1, vertex2, base+formula.frame);
+                    }
+                    return evaluate(target, vertex1, vertex2, base+formula.frame);
+                }
+                case EXISTS:
+                    return quantify(formula, base);
+                case FORALL:
+                    //forall holds if no vertex violates the body
+                    return !quantify(formula, base);
+            }
+            return false;
+        }
+
+        /**
+         * Look for a vertex satisfying the body of a quantifier as planned by planQuantifier
+         * @param quantifier compiled quantifier
+         * @param base first slot of the formula in env
+         * @return true if such a vertex exists
+         */
+        private boolean quantify(MSOTFormula quantifier, int base) {
+            int from = quantifier.sameCopy ? (env[base]/width)*width : 0;
+            int to = quantifier.sameCopy ? from+width : vertexCount;
+            int lower = 0;
+            int upper = width-1;
+            for (int i = 0; i < quantifier.boundVar.length; i++) {
+                int position = env[base+quantifier.boundVar[i]]%width;
+                switch (quantifier.boundKind[i]) {
+                    case MSOTFormula.GREATER:
+                        lower = Math.max(lower, position+1);
+                        break;
+                    case MSOTFormula.GREATER_EQUAL:
+                        lower = Math.max(lower, position);
+                        break;
+                    case MSOTFormula.LESS_THAN:
+                        upper = Math.min(upper, position-1);
+                        break;
+                    default:
+                        upper = Math.min(upper, position);
+                }
+            }
+            if (lower > upper) {
+                return false;
+            }
+            int slot = base+quantifier.var1;
+            if (quantifier.pinVar >= 0) {
+                int vertex = env[base+quantifier.pinVar]+quantifier.pinOffset;
+                if (vertex < from || vertex >= to || vertex%width < lower || vertex%width > upper) {
+                    return false;
+                }
+                env[slot] = vertex;
+                return evaluate(quantifier.body, base);
+            }
+            if (!quantifier.residual) {
+                int[] table = positionTable(quantifier, base, from, to);
+                return table[upper+1]-table[lower] > 0;
+            }
+            //a search depending on at most two vertices is done once for them, counting the copy of x in node formulas
+            long free = quantifier.vars | (quantifier.sameCopy ? 1L : 0L);
+            if (Long.bitCount(free) > 2) {
+                return search(quantifier, base, from, to, lower, upper);
+            }
+            int vertex1 = free == 0 ? 0 : env[base+Long.numberOfTrailingZeros(free)];
+            free &= free-1;
+            int vertex2 = free == 0 ? 0 : env[base+Long.numberOfTrailingZeros(free)];
+            long key = memoKey(msot.edgeFormula.length*msot.edgeFormula.length*msot.outputName.length+quantifier.table, vertex1, vertex2);
+            int known = recall(key);
+            if (known >= 0) {
+                return known == 1;
+            }
+            boolean result = search(quantifier, base, from, to, lower, upper);
+            remember(key, result);
+            return result;
+        }
+
+        /**
+         * Look for a vertex satisfying the body of a quantifier by evaluating it at every position in bounds
+         * @param quantifier compiled quantifier
+         * @param base first slot of the formula in env
+         * @param from first vertex in range
+         * @param to vertex after the last in range
+         * @param lower first position in bounds
+         * @param upper last position in bounds
+         * @return true if such a vertex exists
+         */
+        private boolean search(MSOTFormula quantifier, int base, int from, int to, int lower, int upper) {
+            int slot = base+quantifier.var1;
+            for (int copy = from; copy < to; copy += width) {
+                for (int position = lower; position <= upper; position++) {
+                    env[slot] = copy+position;
+                    if (evaluate(quantifier.body, base)) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Get the position table of a quantifier filter for the current run
+         * Entry p of the table counts the vertices at positions below p that satisfy the filter.
+         * Tables of node formulas cover the copy of x, the others all copies.
+         * @param quantifier compiled quantifier
+         * @param base first slot of the formula in env
+         * @param from first vertex in range
+         * @param to vertex after the last in range
+         * @return position table
+         */
+        private int[] positionTable(MSOTFormula quantifier, int base, int from, int to) {
+            int[] table = positionTable[quantifier.table];
+            if (tableRun[quantifier.table] == runCount && tableCopy[quantifier.table] == from) {
+                return table;
+            }
+            if (table == null || table.length < width+1) {
+                table = new int[Math.max(width, capacity)+1];
+                positionTable[quantifier.table] = table;
+            } else {
+                Arrays.fill(table, 0, width+1, 0);
+            }
+            int slot = base+quantifier.var1;
+            for (int copy = from; copy < to; copy += width) {
+                for (int position = 0; position < width; position++) {
+                    env[slot] = copy+position;
+                    if (quantifier.filter == null || evaluate(quantifier.filter, base)) {
+                        table[position+1]++;
+                    }
+                }
+            }
+            for (int position = 0; position < width; position++) {
+                table[position+1] += table[position];
+            }
+            tableRun[quantifier.table] = runCount;
+            tableCopy[quantifier.table] = from;
+            return table;
+        }
+    }}
@@ -0,0 +1,104 @@
+package simulator.transducer;
+
+/**
+ * Compiled node or edge formula of an MSOT
+ * Formulas are compiled once from their parse trees, so that evaluation only switches on the operation
+ * and reads symbol numbers and variable slots prepared here.
+ * Variables are numbered by slot: x is 0, y is 1 and bound variables take the following slots by nesting depth.
+ */
+class MSOTFormula {
+
+    enum Op {
+        AND, OR, NOT, TRUE, FALSE,
+        // out{a}(var1)
+        OUT,
+        // edge{a}(var1,var2)
+        EDGE,
+        // next{a}(var1,var2)
+        NEXT,
+        // fps{a}(var1,var2)
+        FPS,
+        // var1<var2
+        LESS,
+        // F{copy1,copy2}{output}(var1,var2)
+        REF,
+        // #var1(left) and $var1(left)
+        EXISTS, FORALL
+    }
+
+    final Op op;
+    MSOTFormula left;
+    MSOTFormula right;
+
+    // input symbol number, -1 if the symbol is not in the input alphabet
+    int symbol = -1;
+    int var1;
+    int var2;
+
+    // copies and output symbol of the edge formula referred to by REF
+    int copy1;
+    int copy2;
+    int output;
+
+    // whether a quantifier ranges over the copy of x only, as in node formulas, instead of all vertices
+    boolean sameCopy;
+
+    // number of variable slots of the whole formula this one belongs to
+    int frame;
+
+    // variable slots occurring free in the formula, one bit per slot
+    long vars;
+
+    // Plan of a quantifier on slot var1, read as "exists var1 with body" and negated for forall.
+    // The body is the formula itself for exists and its negation for forall.
+    MSOTFormula body;
+    // conjunction of the parts of the body in which only var1 is free, null if there are none
+    MSOTFormula filter;
+    // position bounds on var1 taken from order constraints of the body, given by the other variable and a kind
+    int[] boundVar = new int[0];
+    int[] boundKind = new int[0];
+    // vertex var1 is pinned to by an edge of the body, the vertex of slot pinVar plus pinOffset, -1 if none
+    int pinVar = -1;
+    int pinOffset;
+    // whether the body has parts besides the filter, bounds and pin, which then are checked vertex by vertex
+    boolean residual;
+    // number of the position table of the filter
+    int table;
+
+    // kinds of position bounds, var1 compared to the other variable
+    static final int GREATER = 0;
+    static final int GREATER_EQUAL = 1;
+    static final int LESS_THAN = 2;
+    static final int LESS_EQUAL = 3;
+
+    MSOTFormula(Op op) {
+        this.op = op;
+    }
+
+    MSOTFormula(Op op, MSOTFormula left, MSOTFormula right) {
+        this.op = op;
+        this.left = left;
+        this.right = right;
+        this.vars = (left == null ? 0 : left.vars) | (right == null ? 0 : right.vars);
+    }
+
+    /**
+     * Set the number of variable slots on this formula and all its subformulas, including quantifier plans
+     * @param frame number of variable slots
+     */
+    void setFrame(int frame) {
+        this.frame = frame;
+        if (left != null) {
+            left.setFrame(frame);
+        }
+        if (right != null) {
+            right.setFrame(frame);
+        }
+        if (body != null) {
+            body.setFrame(frame);
+        }
+        if (filter != null) {
+            filter.setFrame(frame);
+        }
+    }
+}
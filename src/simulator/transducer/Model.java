@@ -0,0 +1,40 @@
+package simulator.transducer;
+
+import java.util.List;
+
+/**
+ * A compiled model turning input strings into output strings, implemented by TDFT, SST and MSOT
+ * Models keep no state of a run in themselves, so one model can be run by several threads at once.
+ */
+public interface Model {
+
+    /**
+     * Run the model over input string without tracing
+     * @param inputString input string
+     * @return Output string
+     */
+    String run(String inputString);
+
+    /**
+     * Run the model over input string
+     * A run without a defined output calls fail of the trace.
+     * @param inputString input string
+     * @param trace listener receiving every step of the run
+     * @return Output string
+     */
+    String run(String inputString, TraceListener trace);
+
+    /**
+     * Run the model over many input strings without tracing
+     * @param inputStrings input strings
+     * @return Output strings in the order of the input strings
+     */
+    List<String> runAll(Iterable<String> inputStrings);
+
+    /**
+     * Check whether input string is vaild
+     * @param inputString input string
+     * @return validation of input string
+     */
+    Boolean vaildInput(String inputString);
+}
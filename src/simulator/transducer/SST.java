@@ -1,7 +1,12 @@
 package simulator.transducer;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 
 /**
  * Deterministic streaming string transducers (SST)
@@ -18,10 +23,26 @@ import java.util.HashSet;
  * t1: Q × I -> Q
  * t2: Q × I × X -> (O U X)*
  */
-public class SST extends Transducer{
+public class SST extends Transducer implements Model{
+
+    // The compiled tables below are read by SSTSession, which carries the state of a run.
+
+    // Instructions of compiled update programs, the operand is stored above the three opcode bits.
+    // TARGET starts the new value of variable operand, the following instructions append to it.
+    static final int OP_TARGET = 0;
+    // append the old value of variable operand, moving it
+    static final int OP_VARIABLE = 1;
+    // append a copy of the old value of variable operand, used when an update is not copyless
+    static final int OP_COPY = 2;
+    // append the character operand
+    static final int OP_LITERAL = 3;
+    // prepend the character operand, used for literals in front of the first variable of a formula
+    static final int OP_PREPEND = 4;
+    static final int OP_MASK = 7;
+    static final int OP_BITS = 3;
 
     // A finite set of variables of the transducer.
-    private HashMap<String, Integer> variables;
+    HashMap<String, Integer> variables;
 
     // A partial output function of the transducer.
     private String[] partialOutput;
@@ -32,107 +53,371 @@ public class SST extends Transducer{
     // a variable-update function of the transducer.
     private String[][][] variableUpdate;
 
+    // State names indexed by state id.
+    String[] stateName;
+
+    int symbolCount;
+    int variableCount;
+    int initialStateId;
+
+    // State-transition function indexed by (state id * symbol count + symbol id), -1 where it is undefined.
+    int[] nextState;
+
+    // Variable-update function compiled into one program per (state id * symbol count + symbol id).
+    // A variable without a TARGET in the program is undefined after the transition.
+    int[][] updateProgram;
+
+    // Partial output function compiled into one program per state, null where it is undefined.
+    int[][] outputProgram;
+
+    // The variable whose value is a final prefix of the output in each state, -1 if there is none.
+    // A session writing to a Writer may flush that value early instead of holding it until the end of the input.
+    int[] flushVariable;
+
     public SST(String initialState, HashMap<String, Integer> states, HashMap<String, Integer> inputAlphabet, HashSet<String> outputAlphabet, HashMap<String, Integer> variables, String[] partialOutput, String[][] stateTransition, String[][][] variableUpdate) {
         super(initialState, states, inputAlphabet, outputAlphabet);
         this.variables = variables;
         this.partialOutput = partialOutput;
         this.stateTransition = stateTransition;
         this.variableUpdate = variableUpdate;
+        compile();
     }
 
     /**
-     * Run SST over input string
-     * @param inputString input string
-     * @return Output string
+     * Compile the transition and update functions into integer tables and programs
+     * Update formulas are parsed once here instead of on every input symbol.
      */
-    public String run(String inputString) {
-        // switch to char array
-        char[] stringArray = inputString.toCharArray();
-        // current state
-        String currState = initialState;
-        System.out.println("Running chain of states:");
-        System.out.printf(currState);
-        String output = "";
-        int currStateNum;
-        int currInputNum;
-        int currVarNum;
-        char[] outputFormula;
-        char[] newValueFormula;
-        String newValue;
-        String currSymbol;
-        HashMap<String, String> variableValue = new HashMap<String, String>();
-        
-
-        for (String variable: variables.keySet()) {
-            variableValue.put(variable, new String(""));
-        }
-
-        for (int currPosition = 0; currPosition < stringArray.length; currPosition++) {
-            HashMap<String, String> newVariableValue = new HashMap<String, String>();
-            currStateNum = states.get(currState);
-            currInputNum = inputAlphabet.get(String.valueOf(stringArray[currPosition]));
-            currState = stateTransition[currStateNum][currInputNum];
-            for (String variable: variables.keySet()) {
-                currVarNum = variables.get(variable);
-                if (variableUpdate[currStateNum][currInputNum][currVarNum] == null) {
-                    continue;
+    private void compile() {
+        int stateCount = stateTransition.length;
+        symbolCount = stateCount > 0 ? stateTransition[0].length : inputAlphabet.size();
+        variableCount = 0;
+        for (int var : variables.values()) {
+            variableCount = Math.max(variableCount, var+1);
+        }
+        stateName = new String[stateCount];
+        for (String state : states.keySet()) {
+            stateName[states.get(state)] = state;
+        }
+        initialStateId = states.get(initialState);
+
+        nextState = new int[stateCount*symbolCount];
+        updateProgram = new int[stateCount*symbolCount][];
+        for (int i = 0; i < stateCount; i++) {
+            for (int j = 0; j < symbolCount; j++) {
+                int index = i*symbolCount+j;
+                String next = stateTransition[i][j];
+                nextState[index] = next == null || states.get(next) == null ? -1 : states.get(next);
+                updateProgram[index] = compileUpdate(variableUpdate[i][j]);
+            }
+        }
+
+        flushVariable = findFlushVariables();
+
+        outputProgram = new int[stateCount][];
+        for (int i = 0; i < stateCount; i++) {
+            if (partialOutput[i] != null) {
+                outputProgram[i] = new int[partialOutput[i].length()];
+                for (int j = 0; j < partialOutput[i].length(); j++) {
+                    outputProgram[i][j] = compileSymbol(partialOutput[i].charAt(j), true);
                 }
-                newValue = "";
-                newValueFormula = variableUpdate[currStateNum][currInputNum][currVarNum].toCharArray();
-                for (int i = 0; i < newValueFormula.length; i++) {
-                    currSymbol = String.valueOf(newValueFormula[i]);
-                    if (variables.containsKey(currSymbol)) {
-                        newValue = newValue.concat(variableValue.get(currSymbol));
-                    } else { //outputAlphabet.contains(currSymbol)
-                        newValue = newValue.concat(currSymbol);
+            }
+        }
+    }
+
+    /**
+     * Find for every state a variable whose value can no longer change except by appending, and that starts the output
+     * A state qualifies for variable v if the partial output of every state reachable from it starts with v and uses it nowhere else,
+     * every transition from those states is defined and updates v to v followed by something,
+     * and no other variable of those transitions uses v.
+     * Whatever v holds in such a state is then a prefix of the final output.
+     * The set of such states is the greatest set closed under these conditions, found by removing states until none fails.
+     * @return variable number for every state, -1 if no variable qualifies
+     */
+    private int[] findFlushVariables() {
+        int stateCount = stateTransition.length;
+        int[] flush = new int[stateCount];
+        for (int i = 0; i < stateCount; i++) {
+            flush[i] = -1;
+        }
+        for (String variable : variables.keySet()) {
+            if (variable.length() != 1) {
+                continue;
+            }
+            char name = variable.charAt(0);
+            boolean[] stable = new boolean[stateCount];
+            for (int i = 0; i < stateCount; i++) {
+                stable[i] = partialOutput[i] != null && partialOutput[i].indexOf(name) == 0 && partialOutput[i].indexOf(name, 1) < 0;
+            }
+            boolean changed = true;
+            while (changed) {
+                changed = false;
+                for (int i = 0; i < stateCount; i++) {
+                    if (!stable[i]) {
+                        continue;
+                    }
+                    for (int j = 0; j < symbolCount; j++) {
+                        int next = nextState[i*symbolCount+j];
+                        if (next < 0 || !stable[next] || !appendsOnly(variableUpdate[i][j], variables.get(variable), name)) {
+                            stable[i] = false;
+                            changed = true;
+                            break;
+                        }
                     }
                 }
-                newVariableValue.put(variable, newValue);
             }
-            variableValue = newVariableValue;
-            System.out.printf("->" + currState);
+            for (int i = 0; i < stateCount; i++) {
+                if (stable[i]) {
+                    flush[i] = variables.get(variable);
+                }
+            }
         }
+        return flush;
+    }
 
-        currStateNum = states.get(currState);
-        if (partialOutput[currStateNum] != null && !partialOutput[currStateNum].equals("")) {
-            outputFormula = partialOutput[currStateNum].toCharArray();
-            for (int i = 0; i < outputFormula.length; i++) {
-                currSymbol = String.valueOf(outputFormula[i]);
-                if (variables.containsKey(currSymbol)) {
-                    output = output.concat(variableValue.get(currSymbol));
-                } else { //outputAlphabet.contains(currSymbol)
-                    output = output.concat(currSymbol);
+    /**
+     * Check whether the updates of one transition keep the value of a variable as a prefix of its new value
+     * @param update update formulas indexed by variable number
+     * @param var variable number
+     * @param name variable name
+     * @return true if the variable is updated to itself followed by something and used nowhere else
+     */
+    private boolean appendsOnly(String[] update, int var, char name) {
+        if (update[var] == null || update[var].length() == 0 || update[var].charAt(0) != name) {
+            return false;
+        }
+        int uses = 0;
+        for (String formula : update) {
+            if (formula != null) {
+                for (int i = 0; i < formula.length(); i++) {
+                    if (formula.charAt(i) == name) {
+                        uses++;
+                    }
                 }
             }
-        } else {
-            output = "";
         }
-        System.out.printf("\n");
-        System.out.println("Variables:");
-        for (String variable : variables.keySet()) {
-            if (variableValue.get(variable) != null) {
-                System.out.println(variable + ": " + variableValue.get(variable));
-            } else {
-                System.out.println(variable + ": \u03B5");      //print epslion symbol
+        return uses == 1;
+    }
+
+    /**
+     * Compile the variable updates of one transition into a program
+     * @param update update formulas indexed by variable number
+     * @return program
+     */
+    private int[] compileUpdate(String[] update) {
+        boolean copyless = isCopyless(update);
+        int length = 0;
+        for (String formula : update) {
+            if (formula != null) {
+                length += formula.length()+1;
+            }
+        }
+        int[] program = new int[length];
+        int pc = 0;
+        for (int var = 0; var < update.length; var++) {
+            if (update[var] == null) {
+                continue;
+            }
+            program[pc++] = var << OP_BITS | OP_TARGET;
+            int[] formula = compileFormula(update[var], copyless);
+            System.arraycopy(formula, 0, program, pc, formula.length);
+            pc += formula.length;
+        }
+        return program;
+    }
+
+    /**
+     * Compile a formula over variables and output symbols into instructions
+     * Literals in front of the first variable are prepended after moving it, as in y then a for the formula ay,
+     * so that they fill the room in front of the moved value instead of starting a new segment.
+     * @param formula formula such as xay
+     * @param copyless whether variables may be moved instead of copied
+     * @return instructions, one per symbol of the formula
+     */
+    private int[] compileFormula(String formula, boolean copyless) {
+        int[] instructions = new int[formula.length()];
+        int first = -1;
+        for (int i = 0; i < formula.length() && first < 0; i++) {
+            if (variables.containsKey(String.valueOf(formula.charAt(i)))) {
+                first = i;
+            }
+        }
+        int pc = 0;
+        int rest = 0;
+        if (first > 0) {
+            instructions[pc++] = compileSymbol(formula.charAt(first), copyless);
+            for (int i = first-1; i >= 0; i--) {
+                instructions[pc++] = formula.charAt(i) << OP_BITS | OP_PREPEND;
             }
+            rest = first+1;
         }
-        return output;
+        for (int i = rest; i < formula.length(); i++) {
+            instructions[pc++] = compileSymbol(formula.charAt(i), copyless);
+        }
+        return instructions;
     }
 
     /**
-     * Check whether input string is vaild
+     * Compile a symbol of a formula into an instruction appending it
+     * @param c variable or output symbol
+     * @param copyless whether variables may be moved instead of copied
+     * @return instruction
+     */
+    private int compileSymbol(char c, boolean copyless) {
+        Integer var = variables.get(String.valueOf(c));
+        if (var != null) {
+            return var << OP_BITS | (copyless ? OP_VARIABLE : OP_COPY);
+        } else { //outputAlphabet.contains(c)
+            return c << OP_BITS | OP_LITERAL;
+        }
+    }
+
+    /**
+     * Check whether the variable updates of one transition use every variable at most once
+     * Old values can only be moved into new ones when this holds, otherwise they are copied.
+     * @param update update formulas indexed by variable number
+     * @return true if no variable is used twice
+     */
+    private boolean isCopyless(String[] update) {
+        HashSet<Character> used = new HashSet<Character>();
+        for (String formula : update) {
+            if (formula == null) {
+                continue;
+            }
+            for (char c : formula.toCharArray()) {
+                if (variables.containsKey(String.valueOf(c)) && !used.add(c)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Run SST over input string without tracing
+     * @param inputString input string
+     * @return Output string
+     */
+    public String run(String inputString) {
+        return run(inputString, TraceListener.NONE);
+    }
+
+    /**
+     * Run SST over input string
      * @param inputString input string
-     * @return validation of input string
+     * @param trace listener receiving every step of the run
+     * @return Output string
+     */
+    public String run(String inputString, TraceListener trace) {
+        SSTSession session = newSession(trace);
+        for (int i = 0; i < inputString.length(); i++) {
+            session.feed(inputString.charAt(i));
+        }
+        return session.finish();
+    }
+
+    /**
+     * Run SST over a character stream without tracing
+     * Input is consumed incrementally, only the variable values are held in memory.
+     * @param input input stream
+     * @return Output string
+     * @throws IOException if reading the input fails
      */
-    public Boolean vaildInput(String inputString) {
-        char [] stringArray = inputString.toCharArray();
-        Boolean validation = true;
-        //check weather every symbol is in the input Alphabet
-        for (char c : stringArray) {
-            if (!inputAlphabet.containsKey(String.valueOf(c))) {
-                validation = false;
+    public String run(Reader input) throws IOException {
+        return run(input, TraceListener.NONE);
+    }
+
+    /**
+     * Run SST over a character stream
+     * Input is consumed incrementally, only the variable values are held in memory.
+     * @param input input stream
+     * @param trace listener receiving every step of the run
+     * @return Output string
+     * @throws IOException if reading the input fails
+     */
+    public String run(Reader input, TraceListener trace) throws IOException {
+        SSTSession session = newSession(trace);
+        char[] buffer = new char[8192];
+        int count;
+        while ((count = input.read(buffer)) != -1) {
+            for (int i = 0; i < count; i++) {
+                session.feed(buffer[i]);
+            }
+            // the rest of the input can not make the output defined again
+            if (session.failed()) {
+                break;
+            }
+        }
+        return session.finish();
+    }
+
+    /**
+     * Run SST from a character stream to another
+     * Where a prefix of the output is known to be final before the end of the input, it is written early.
+     * An undefined transition, an unknown input symbol or an undefined partial output is reported to the trace
+     * and makes the output undefined, but a prefix written before the failure stays in the output stream.
+     * @param input input stream
+     * @param output stream receiving the output
+     * @param trace listener receiving every step of the run
+     * @return whether the output is defined, otherwise the written output is incomplete
+     * @throws IOException if reading the input or writing the output fails
+     */
+    public boolean run(Reader input, Writer output, TraceListener trace) throws IOException {
+        SSTSession session = newSession(trace, output);
+        char[] buffer = new char[8192];
+        int count;
+        while ((count = input.read(buffer)) != -1) {
+            for (int i = 0; i < count; i++) {
+                session.feed(buffer[i]);
+            }
+            // the rest of the input can not make the output defined again
+            if (session.failed()) {
+                break;
             }
         }
-        return validation;
+        output.write(session.finish());
+        output.flush();
+        return !session.failed();
+    }
+
+    /**
+     * Run SST over many input strings without tracing
+     * The compiled programs and one session with its variable slots are shared by all runs.
+     * @param inputStrings input strings
+     * @return Output strings in the order of the input strings
+     */
+    public List<String> runAll(Iterable<String> inputStrings) {
+        ArrayList<String> outputs = new ArrayList<String>();
+        SSTSession session = null;
+        for (String inputString : inputStrings) {
+            if (session == null) {
+                session = newSession(TraceListener.NONE);
+            } else {
+                session.restart();
+            }
+            for (int i = 0; i < inputString.length(); i++) {
+                session.feed(inputString.charAt(i));
+            }
+            outputs.add(session.finish());
+        }
+        return outputs;
+    }
+
+    /**
+     * Start a push-style run, input symbols are given one by one with feed and the output is taken with finish
+     * @param trace listener receiving every step of the run
+     * @return a new session in the initial state
+     */
+    public SSTSession newSession(TraceListener trace) {
+        return new SSTSession(this, trace, null);
+    }
+
+    /**
+     * Start a push-style run that writes final prefixes of the output early
+     * @param trace listener receiving every step of the run
+     * @param output stream receiving output prefixes as soon as they are final
+     * @return a new session in the initial state
+     */
+    public SSTSession newSession(TraceListener trace, Writer output) {
+        return new SSTSession(this, trace, output);
     }
 }
@@ -0,0 +1,231 @@
+package simulator.transducer;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+
+import simulator.util.OutputBuffer;
+import simulator.util.Rope;
+
+/**
+ * A push-style run of a SST.
+ * Input symbols are given one at a time with feed, finish applies the partial output function.
+ * A session only holds the current state and variable values, so input of any length can be streamed through it.
+ * Given a writer, a session also writes the value of a variable as soon as it is known to be a final prefix of the output,
+ * finish then returns only the rest of the output.
+ */
+public class SSTSession {
+
+    // minimum number of characters flushed to the writer at once
+    private static final int FLUSH_SIZE = 8192;
+
+    private SST sst;
+    private TraceListener trace;
+
+    // stream receiving final output prefixes, null if the whole output is returned by finish
+    private Writer output;
+
+    // current state and number of symbols read
+    private int currState;
+    private int position;
+
+    // two sets of variable slots swap roles on every symbol, the new values are built from the old ones
+    private Rope[] variableValue;
+    private Rope[] newVariableValue;
+    private boolean[] defined;
+    private boolean[] newDefined;
+
+    // whether the run stopped on an undefined transition
+    private boolean failed;
+    private boolean finished;
+
+    SSTSession(SST sst, TraceListener trace, Writer output) {
+        this.sst = sst;
+        this.trace = trace;
+        this.output = output;
+        variableValue = new Rope[sst.variableCount];
+        newVariableValue = new Rope[sst.variableCount];
+        defined = new boolean[sst.variableCount];
+        newDefined = new boolean[sst.variableCount];
+        for (int i = 0; i < sst.variableCount; i++) {
+            variableValue[i] = new Rope();
+            newVariableValue[i] = new Rope();
+        }
+        restart();
+    }
+
+    /**
+     * Start a new run in the initial state, keeping the variable slots of this session
+     */
+    void restart() {
+        for (int i = 0; i < sst.variableCount; i++) {
+            variableValue[i].clear();
+            newVariableValue[i].clear();
+            defined[i] = true;
+        }
+        currState = sst.initialStateId;
+        position = 0;
+        failed = false;
+        finished = false;
+        trace.start(sst.stateName, null, currState, 0);
+    }
+
+    /**
+     * Read one input symbol
+     * A symbol outside the input alphabet fails the run like an undefined transition.
+     * @param c input symbol
+     */
+    public void feed(char c) {
+        if (finished) {
+            throw new IllegalStateException("Session is finished.");
+        }
+        if (failed) {
+            return;
+        }
+        if (c >= sst.symbolId.length || sst.symbolId[c] < 0) {
+            trace.fail("Unknown input symbol at position " + position + ".");
+            failed = true;
+            return;
+        }
+        int index = currState*sst.symbolCount+sst.symbolId[c];
+        if (sst.nextState[index] < 0) {
+            trace.fail("Undefined transition from state " + sst.stateName[currState] + " at position " + position + ".");
+            failed = true;
+            return;
+        }
+        execute(sst.updateProgram[index]);
+        Rope[] swapValue = variableValue;
+        variableValue = newVariableValue;
+        newVariableValue = swapValue;
+        boolean[] swapDefined = defined;
+        defined = newDefined;
+        newDefined = swapDefined;
+        currState = sst.nextState[index];
+        position++;
+        trace.step(currState, position, -1);
+        if (output != null && sst.flushVariable[currState] >= 0 && variableValue[sst.flushVariable[currState]].length() >= FLUSH_SIZE) {
+            flush(variableValue[sst.flushVariable[currState]]);
+        }
+    }
+
+    /**
+     * Write a final output prefix to the writer and drop it from its variable
+     * @param value value of the variable starting the output
+     */
+    private void flush(Rope value) {
+        try {
+            value.writeTo(output);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        value.clear();
+    }
+
+    /**
+     * Check whether the run has failed on an undefined transition or an unknown input symbol,
+     * or once finished, on an undefined partial output
+     * @return whether the output is undefined
+     */
+    public boolean failed() {
+        return failed;
+    }
+
+    /**
+     * End the input and apply the partial output function of the current state
+     * @return Output string not yet written to the writer, empty if the output is undefined
+     */
+    public String finish() {
+        if (finished) {
+            throw new IllegalStateException("Session is finished.");
+        }
+        finished = true;
+        // the output is materialised once from the variable ropes
+        OutputBuffer output;
+        int[] program = sst.outputProgram[currState];
+        if (failed) {
+            output = new OutputBuffer(0);
+        } else if (program != null) {
+            output = new OutputBuffer(outputLength(program));
+            // the output program is compiled without prepends, so it is read in order
+            for (int instruction : program) {
+                if ((instruction & SST.OP_MASK) == SST.OP_LITERAL) {
+                    output.append((char) (instruction >>> SST.OP_BITS));
+                } else {
+                    variableValue[instruction >>> SST.OP_BITS].appendTo(output);
+                }
+            }
+        } else {
+            output = new OutputBuffer(0);
+            trace.fail("Undefined partial output in state " + sst.stateName[currState] + ".");
+        }
+        trace.finish();
+        if (trace != TraceListener.NONE && !failed) {
+            String[] names = new String[sst.variables.size()];
+            String[] values = new String[sst.variables.size()];
+            int i = 0;
+            for (String variable : sst.variables.keySet()) {
+                int var = sst.variables.get(variable);
+                names[i] = variable;
+                values[i] = defined[var] ? variableValue[var].toString() : null;
+                i++;
+            }
+            trace.variables(names, values);
+        }
+        failed = failed || program == null;
+        return output.toString();
+    }
+
+    /**
+     * Execute an update program
+     * All old values are left empty afterwards, so the old slots can take the new values of the next symbol.
+     * @param program update program of the transition
+     */
+    private void execute(int[] program) {
+        for (int i = 0; i < newDefined.length; i++) {
+            newDefined[i] = false;
+        }
+        Rope target = null;
+        for (int instruction : program) {
+            int operand = instruction >>> SST.OP_BITS;
+            switch (instruction & SST.OP_MASK) {
+                case SST.OP_TARGET:
+                    target = newVariableValue[operand];
+                    newDefined[operand] = true;
+                    break;
+                case SST.OP_VARIABLE:
+                    target.append(variableValue[operand]);
+                    break;
+                case SST.OP_COPY:
+                    target.append(variableValue[operand].copy());
+                    break;
+                case SST.OP_LITERAL:
+                    target.append((char) operand);
+                    break;
+                default:
+                    target.prepend((char) operand);
+                    break;
+            }
+        }
+        // values not moved into a new variable are dropped
+        for (int i = 0; i < variableValue.length; i++) {
+            variableValue[i].clear();
+        }
+    }
+
+    /**
+     * Compute the length of the output of an output program
+     * @param program output program
+     * @return output length
+     */
+    private int outputLength(int[] program) {
+        int length = 0;
+        for (int instruction : program) {
+            if ((instruction & SST.OP_MASK) == SST.OP_LITERAL) {
+                length += 1;
+            } else {
+                length += variableValue[instruction >>> SST.OP_BITS].length();
+            }
+        }
+        return length;
+    }
+}
@@ -1,7 +1,11 @@
 package simulator.transducer;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+
+import simulator.util.OutputBuffer;
 
 /**
  * Deterministic two-way finite state transducers (2DFT)
@@ -14,72 +18,166 @@ import java.util.HashSet;
  *        F is a subset of Q, a set of final states
  * t: Q × (I U {^, $}) -> O* × Q × {-1, 0, +1}
  */
-public class TDFT extends Transducer{
-
-    // A transition function of the transducer.
-    private Object[][][] transition;
+public class TDFT extends Transducer implements Model{
 
     // A set of final states of the transducer.
     protected HashSet<String> finalStates;
 
+    // The transition function compiled into flat arrays indexed by (state id * symbol count + symbol id).
+    // nextState is -1 where the transition is undefined.
+    private int[] nextState;
+    private byte[] move;
+    private int[] outputId;
+
+    // Distinct output strings of the transition function, indexed by output id.
+    private String[] outputTable;
+
+    // State names indexed by state id.
+    private String[] stateName;
+
+    // Whether the state with the given id is final.
+    private boolean[] finalState;
+
+    private int symbolCount;
+    private int initialStateId;
+    private int endMarkerLId;
+    private int endMarkerRId;
+
     public TDFT(String initialState, HashMap<String, Integer> states, HashSet<String> finalStates, HashMap<String, Integer> inputAlphabet, HashSet<String> outputAlphabet, Object[][][] transition) {
         super(initialState, states, inputAlphabet, outputAlphabet);
-        this.transition = transition;
         this.finalStates = finalStates;
+        compile(transition);
     }
 
     /**
-     * Run 2DFT over input string
+     * Compile the transition function into integer tables, so that a run needs neither hashing nor unboxing
+     * @param transition transition function indexed by state number and input symbol number
+     */
+    private void compile(Object[][][] transition) {
+        // ids are taken from the dimensions of the table, duplicated names in the encoding leave gaps
+        int stateCount = transition.length;
+        symbolCount = stateCount > 0 ? transition[0].length : inputAlphabet.size();
+        stateName = new String[stateCount];
+        finalState = new boolean[stateCount];
+        for (String state : states.keySet()) {
+            int id = states.get(state);
+            stateName[id] = state;
+            finalState[id] = finalStates.contains(state);
+        }
+        initialStateId = states.get(initialState);
+
+        endMarkerLId = inputAlphabet.get(endMarkerL);
+        endMarkerRId = inputAlphabet.get(endMarkerR);
+
+        nextState = new int[stateCount*symbolCount];
+        move = new byte[stateCount*symbolCount];
+        outputId = new int[stateCount*symbolCount];
+        HashMap<String, Integer> outputs = new HashMap<String, Integer>();
+        for (int i = 0; i < stateCount; i++) {
+            for (int j = 0; j < symbolCount; j++) {
+                int index = i*symbolCount+j;
+                if (transition[i][j][1] == null || states.get((String) transition[i][j][1]) == null) {
+                    nextState[index] = -1;
+                    continue;
+                }
+                nextState[index] = states.get((String) transition[i][j][1]);
+                move[index] = (byte) (int) transition[i][j][2];
+                String output = (String) transition[i][j][0];
+                if (!outputs.containsKey(output)) {
+                    outputs.put(output, outputs.size());
+                }
+                outputId[index] = outputs.get(output);
+            }
+        }
+        outputTable = new String[outputs.size()];
+        for (String output : outputs.keySet()) {
+            outputTable[outputs.get(output)] = output;
+        }
+    }
+
+    /**
+     * Run 2DFT over input string without tracing
      * @param inputString input string
      * @return Output string
      */
     public String run(String inputString) {
-        // add endmarkers
-        String tapeString = "^" + inputString + "$";
-        // switch to char array
-        char [] stringArray = tapeString.toCharArray();
+        return run(inputString, TraceListener.NONE);
+    }
+
+    /**
+     * Run 2DFT over input string
+     * @param inputString input string
+     * @param trace listener receiving every step of the run
+     * @return Output string
+     */
+    public String run(String inputString, TraceListener trace) {
+        return run(inputString, trace, new OutputBuffer(inputString.length()+16));
+    }
+
+    /**
+     * Run 2DFT over many input strings without tracing
+     * The compiled tables and one output buffer are shared by all runs.
+     * @param inputStrings input strings
+     * @return Output strings in the order of the input strings
+     */
+    public List<String> runAll(Iterable<String> inputStrings) {
+        ArrayList<String> outputs = new ArrayList<String>();
+        OutputBuffer output = new OutputBuffer();
+        for (String inputString : inputStrings) {
+            output.clear();
+            outputs.add(run(inputString, TraceListener.NONE, output));
+        }
+        return outputs;
+    }
+
+    /**
+     * Run 2DFT over input string into an output buffer
+     * @param inputString input string
+     * @param trace listener receiving every step of the run
+     * @param output empty buffer receiving the output
+     * @return Output string
+     */
+    private String run(String inputString, TraceListener trace, OutputBuffer output) {
+        // the tape is ^ inputString $, endmarkers are not stored but read at the two ends
+        int tapeLength = inputString.length()+2;
         // current state
-        String currState = initialState;
-        System.out.println("Running chain of states:");
-        System.out.printf("(" + currState + ",1)");
+        int currState = initialStateId;
         // current position on input tape
         int currPosition = 1;
-        String output = "";
-        int currStateNum;
-        int currInputNum;
-        while (!finalStates.contains(currState) && currPosition >= 0 && currPosition < stringArray.length) {
-            currStateNum = states.get(currState);
-            currInputNum = inputAlphabet.get(String.valueOf(stringArray[currPosition]));
-            if (transition[currStateNum][currInputNum][1] == null) {
-                output = "!";
+        trace.start(stateName, outputTable, currState, currPosition);
+        int index;
+        while (!finalState[currState] && currPosition >= 0 && currPosition < tapeLength) {
+            index = currState*symbolCount+tapeSymbol(inputString, currPosition);
+            if (nextState[index] < 0) {
+                output.clear();
+                output.append('!');
+                trace.fail("Undefined transition from state " + stateName[currState] + " at position " + currPosition + ".");
                 break;
             }
-            currState = (String) transition[currStateNum][currInputNum][1];
-            output += (String) transition[currStateNum][currInputNum][0];
-            currPosition += (int) transition[currStateNum][currInputNum][2];
+            currState = nextState[index];
+            output.append(outputTable[outputId[index]]);
+            currPosition += move[index];
             if (currPosition < 0) {
-                output = "";
+                output.clear();
             }
-            System.out.printf("->(" + currState + "," + currPosition + ")");
+            trace.step(currState, currPosition, outputId[index]);
         }
-        System.out.printf("\n");
-        return output;
+        trace.finish();
+        return output.toString();
     }
 
     /**
-     * Check whether input string is vaild
+     * Get the symbol id at a position of the tape ^ inputString $
      * @param inputString input string
-     * @return validation of input string
+     * @param position position on the tape
+     * @return symbol id
      */
-    public Boolean vaildInput(String inputString) {
-        char [] stringArray = inputString.toCharArray();
-        Boolean validation = true;
-        //check weather every symbol is in the input Alphabet
-        for (char c : stringArray) {
-            if (!inputAlphabet.containsKey(String.valueOf(c))) {
-                validation = false;
-            }
+    private int tapeSymbol(String inputString, int position) {
+        if (position == 0) {
+            return endMarkerLId;
+        } else if (position > inputString.length()) {
+            return endMarkerRId;
         }
-        return validation;
+        return symbolOf(inputString.charAt(position-1));
     }
 }
@@ -0,0 +1,52 @@
+package simulator.transducer;
+
+/**
+ * Receives the steps of a transducer run.
+ * Every method does nothing by default, so a run traced by NONE pays nothing for tracing.
+ * States and outputs are reported by id, the names behind the ids are given once in start.
+ */
+public interface TraceListener {
+
+    // A listener that ignores every event, used when tracing is off.
+    TraceListener NONE = new TraceListener() {};
+
+    /**
+     * Called once before the first step
+     * @param stateNames state names indexed by state id
+     * @param outputNames output strings indexed by output id, null if the transducer emits no output per step
+     * @param state initial state id
+     * @param position initial head position
+     */
+    default void start(String[] stateNames, String[] outputNames, int state, int position) {
+    }
+
+    /**
+     * Called after every transition
+     * @param state state id after the transition
+     * @param position head position after the transition
+     * @param output id of the emitted output, -1 if nothing is emitted
+     */
+    default void step(int state, int position, int output) {
+    }
+
+    /**
+     * Called when the run stops without a defined output
+     * @param reason description of the failure
+     */
+    default void fail(String reason) {
+    }
+
+    /**
+     * Called once after the last step
+     */
+    default void finish() {
+    }
+
+    /**
+     * Called after finish with the final variable values of a SST
+     * @param names variable names
+     * @param values variable values, null for an undefined variable
+     */
+    default void variables(String[] names, String[] values) {
+    }
+}
@@ -0,0 +1,101 @@
+package simulator.transducer;
+
+import java.io.PrintStream;
+
+/**
+ * Records the last steps of a run in a fixed-size ring buffer of primitive arrays.
+ * Memory use depends only on the capacity, however long the run is.
+ * The recorded steps can be dumped on demand, and are dumped to System.err when a run fails if requested.
+ */
+public class TraceRecorder implements TraceListener {
+
+    // ring buffer of recorded steps, slot (count % capacity) is written next
+    private int[] stateBuffer;
+    private int[] positionBuffer;
+    private int[] outputBuffer;
+
+    // number of steps seen since start, including overwritten ones
+    private long count;
+
+    private String[] stateNames;
+    private String[] outputNames;
+
+    // whether the recorded steps are printed to System.err when the run fails
+    private boolean dumpOnFailure;
+
+    public TraceRecorder(int capacity, boolean dumpOnFailure) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Trace capacity must be positive.");
+        }
+        this.stateBuffer = new int[capacity];
+        this.positionBuffer = new int[capacity];
+        this.outputBuffer = new int[capacity];
+        this.dumpOnFailure = dumpOnFailure;
+    }
+
+    public TraceRecorder(int capacity) {
+        this(capacity, true);
+    }
+
+    @Override
+    public void start(String[] stateNames, String[] outputNames, int state, int position) {
+        this.stateNames = stateNames;
+        this.outputNames = outputNames;
+        this.count = 0;
+        step(state, position, -1);
+    }
+
+    @Override
+    public void step(int state, int position, int output) {
+        int slot = (int) (count % stateBuffer.length);
+        stateBuffer[slot] = state;
+        positionBuffer[slot] = position;
+        outputBuffer[slot] = output;
+        count++;
+    }
+
+    @Override
+    public void fail(String reason) {
+        if (dumpOnFailure) {
+            System.err.println("Run failed: " + reason);
+            dump(System.err);
+        }
+    }
+
+    /**
+     * Get the number of steps seen in the last run, the initial configuration included
+     * @return number of steps
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Print all steps still held in the buffer
+     * @param out stream to print to
+     */
+    public void dump(PrintStream out) {
+        dump(stateBuffer.length, out);
+    }
+
+    /**
+     * Print the last steps of the run, oldest first
+     * @param last maximum number of steps to print
+     * @param out stream to print to
+     */
+    public void dump(int last, PrintStream out) {
+        long recorded = Math.min(count, stateBuffer.length);
+        long first = count - Math.min(recorded, Math.max(last, 0));
+        if (first > 0) {
+            out.println("... " + first + " earlier steps omitted");
+        }
+        for (long i = first; i < count; i++) {
+            int slot = (int) (i % stateBuffer.length);
+            String line = i + ": (" + stateNames[stateBuffer[slot]] + "," + positionBuffer[slot] + ")";
+            if (outputBuffer[slot] >= 0 && outputNames != null && !outputNames[outputBuffer[slot]].isEmpty()) {
+                line += " " + outputNames[outputBuffer[slot]];
+            }
+            out.println(line);
+        }
+    }
+}
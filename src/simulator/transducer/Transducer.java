@@ -29,10 +29,65 @@ public class Transducer {
     // Right endmarker for the transducer.
     protected String endMarkerR = "$";
 
+    // Symbol number of every input character, -1 if the character is not in the input alphabet.
+    // Every input symbol is a single character, so this array replaces lookups in inputAlphabet during a run.
+    protected int[] symbolId;
+
     public Transducer(String initialState, HashMap<String, Integer> states, HashMap<String, Integer> inputAlphabet, HashSet<String> outputAlphabet) {
         this.initialState = initialState;
         this.states = states;
         this.inputAlphabet = inputAlphabet;
         this.outputAlphabet = outputAlphabet;
+        compileAlphabet();
+    }
+
+    /**
+     * Build the character indexed symbol table from the input alphabet
+     */
+    protected void compileAlphabet() {
+        int maxChar = 0;
+        for (String symbol : inputAlphabet.keySet()) {
+            if (symbol.length() == 1) {
+                maxChar = Math.max(maxChar, symbol.charAt(0));
+            }
+        }
+        symbolId = new int[maxChar+1];
+        for (int i = 0; i < symbolId.length; i++) {
+            symbolId[i] = -1;
+        }
+        for (String symbol : inputAlphabet.keySet()) {
+            if (symbol.length() == 1) {
+                symbolId[symbol.charAt(0)] = inputAlphabet.get(symbol);
+            }
+        }
+    }
+
+    /**
+     * Get the symbol number of an input character
+     * @param c input character
+     * @return symbol number
+     */
+    protected int symbolOf(char c) {
+        if (c >= symbolId.length || symbolId[c] < 0) {
+            throw new IllegalArgumentException("Unknown input symbol: " + c + ".");
+        }
+        return symbolId[c];
+    }
+
+    /**
+     * Check whether input string is vaild
+     * @param inputString input string
+     * @return validation of input string
+     */
+    public Boolean vaildInput(String inputString) {
+        Boolean validation = true;
+        //check weather every symbol is in the input Alphabet
+        for (int i = 0; i < inputString.length(); i++) {
+            char c = inputString.charAt(i);
+            if (c >= symbolId.length || symbolId[c] < 0) {
+                validation = false;
+            }
+        }
+        return validation;
     }
 }
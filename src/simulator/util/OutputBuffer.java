@@ -0,0 +1,84 @@
+package simulator.util;
+
+/**
+ * Growable character buffer used by transducers to accumulate output
+ * Appending is amortised constant time per character, so a run costs linear time in its output size.
+ */
+public class OutputBuffer {
+    private char[] data;
+    private int length;
+
+    public OutputBuffer(int capacity) {
+        this.data = new char[Math.max(capacity, 16)];
+        this.length = 0;
+    }
+
+    public OutputBuffer() {
+        this(16);
+    }
+
+    public int length() {
+        return length;
+    }
+
+    /**
+     * Append a single character
+     * @param c character
+     * @return this buffer
+     */
+    public OutputBuffer append(char c) {
+        ensureCapacity(length+1);
+        data[length++] = c;
+        return this;
+    }
+
+    /**
+     * Append all characters of a string
+     * @param s string
+     * @return this buffer
+     */
+    public OutputBuffer append(String s) {
+        int n = s.length();
+        if (n == 0) {
+            return this;
+        }
+        ensureCapacity(length+n);
+        s.getChars(0, n, data, length);
+        length += n;
+        return this;
+    }
+
+    /**
+     * Append characters of an array
+     * @param chars character array
+     * @param offset index of the first character
+     * @param count number of characters
+     * @return this buffer
+     */
+    public OutputBuffer append(char[] chars, int offset, int count) {
+        ensureCapacity(length+count);
+        System.arraycopy(chars, offset, data, length, count);
+        length += count;
+        return this;
+    }
+
+    /**
+     * Discard the content, keeping the allocated storage for reuse
+     */
+    public void clear() {
+        length = 0;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > data.length) {
+            char[] newData = new char[Math.max(capacity, data.length*2)];
+            System.arraycopy(data, 0, newData, 0, length);
+            data = newData;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return new String(data, 0, length);
+    }
+}
@@ -0,0 +1,150 @@
+package simulator.util;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * A string stored as a linked list of character segments.
+ * Appending another rope splices its segments in constant time and leaves the other rope empty,
+ * which is how variable values of a copyless SST move between variables.
+ * Single characters are appended or prepended into spare room at either end of the segment list.
+ */
+public class Rope {
+
+    // capacity of segments created for appended characters
+    private static final int SEGMENT_SIZE = 32;
+
+    private Segment head;
+    private Segment tail;
+    private int length;
+
+    /**
+     * Characters data[start..end) of a segment, followed by the next segment of the rope
+     * Room is left on both sides, so that both appended and prepended characters fill existing segments.
+     */
+    private static class Segment {
+        private char[] data;
+        private int start;
+        private int end;
+        private Segment next;
+
+        private Segment(int capacity, int start) {
+            this.data = new char[capacity];
+            this.start = start;
+            this.end = start;
+        }
+    }
+
+    public int length() {
+        return length;
+    }
+
+    /**
+     * Append a single character, filling the spare room of the last segment first
+     * @param c character
+     */
+    public void append(char c) {
+        if (tail == null) {
+            head = new Segment(SEGMENT_SIZE, SEGMENT_SIZE/2);
+            tail = head;
+        } else if (tail.end == tail.data.length) {
+            tail.next = new Segment(SEGMENT_SIZE, 0);
+            tail = tail.next;
+        }
+        tail.data[tail.end++] = c;
+        length++;
+    }
+
+    /**
+     * Prepend a single character, filling the spare room in front of the first segment first
+     * @param c character
+     */
+    public void prepend(char c) {
+        if (head == null) {
+            append(c);
+            return;
+        }
+        if (head.start == 0) {
+            Segment segment = new Segment(SEGMENT_SIZE, SEGMENT_SIZE);
+            segment.next = head;
+            head = segment;
+        }
+        head.data[--head.start] = c;
+        length++;
+    }
+
+    /**
+     * Move the content of another rope to the end of this one in constant time
+     * The other rope is left empty.
+     * @param other rope to move from, must not be this rope
+     */
+    public void append(Rope other) {
+        if (other.head == null) {
+            return;
+        }
+        if (tail == null) {
+            head = other.head;
+        } else {
+            tail.next = other.head;
+        }
+        tail = other.tail;
+        length += other.length;
+        other.clear();
+    }
+
+    /**
+     * Copy the content of this rope into a new single-segment rope
+     * @return the copy
+     */
+    public Rope copy() {
+        Rope rope = new Rope();
+        if (length > 0) {
+            Segment segment = new Segment(length, 0);
+            for (Segment s = head; s != null; s = s.next) {
+                System.arraycopy(s.data, s.start, segment.data, segment.end, s.end-s.start);
+                segment.end += s.end-s.start;
+            }
+            rope.head = segment;
+            rope.tail = segment;
+            rope.length = length;
+        }
+        return rope;
+    }
+
+    /**
+     * Drop the content of this rope
+     */
+    public void clear() {
+        head = null;
+        tail = null;
+        length = 0;
+    }
+
+    /**
+     * Append the characters of this rope to an output buffer
+     * @param buffer output buffer
+     */
+    public void appendTo(OutputBuffer buffer) {
+        for (Segment s = head; s != null; s = s.next) {
+            buffer.append(s.data, s.start, s.end-s.start);
+        }
+    }
+
+    /**
+     * Write the characters of this rope to a stream
+     * @param writer stream to write to
+     * @throws IOException if writing fails
+     */
+    public void writeTo(Writer writer) throws IOException {
+        for (Segment s = head; s != null; s = s.next) {
+            writer.write(s.data, s.start, s.end-s.start);
+        }
+    }
+
+    @Override
+    public String toString() {
+        OutputBuffer buffer = new OutputBuffer(length);
+        appendTo(buffer);
+        return buffer.toString();
+    }
+}